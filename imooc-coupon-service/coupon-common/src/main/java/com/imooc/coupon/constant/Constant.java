@@ -12,10 +12,45 @@ public class Constant {
      */
     public static final String TOPIC = "imooc_user_coupon_op";
 
+    /**
+     * 用户优惠券变化的kafka消息topic, key 是用户id
+     * 新领取优惠券的异步写入和本服务产生的状态变化都发送到这里, 同一个用户的消息按顺序写入数据库
+     */
+    public static final String INSERT_TOPIC = "imooc_user_coupon_insert";
+
+    /**
+     * 优惠券模版变化事件的kafka消息topic, key 是模版id, 开启日志压缩, 只保留每个模版最后的状态
+     */
+    public static final String TEMPLATE_CHANGE_TOPIC = "imooc_coupon_template_change";
+
+    /**
+     * 每个优惠券模版的优惠券码被拆分成的子列表个数
+     * 子列表的 key: COUPON_TEMPLATE + 模版id + "_" + 子列表序号
+     */
+    public static final int COUPON_CODE_SHARD_NUM = 8;
+
+    /**
+     * 优惠券模版库存状态广播的 redis channel
+     * 消息: SOLD_OUT:模版id, 优惠券码已经领完; RESTOCK:模版id, 优惠券码重新补充
+     */
+    public static final String TEMPLATE_STOCK_CHANNEL = "imooc_coupon_template_stock";
+
+    /**
+     * 用户优惠券缓存变更广播的 redis channel, 消息: 逗号分隔的用户id
+     */
+    public static final String USER_COUPON_INVALIDATE_CHANNEL = "imooc_user_coupon_invalidate";
+
+    /**
+     * 用户领取了优惠券的广播 redis channel, 消息: 逗号分隔的用户id
+     */
+    public static final String USER_COUPON_ACQUIRED_CHANNEL = "imooc_user_coupon_acquired";
+
     /**
      * Redis key 前缀定义
      */
     public static class RedisPrefix {
+        // 用户相关的 key 是 前缀 + {用户id}, 批量分发任务的 key 是 前缀 + {任务id}
+        // redis 集群下同一个用户(任务)的 key 在同一个 slot, 可以在一个脚本(事务)中访问
         /**
          * 优惠券key前缀
          */
@@ -35,6 +70,79 @@ public class Constant {
          * 用户当前所有已过期的优惠券 key 前缀
          */
         public static final String USER_COUPON_EXPIRED = "imooc_user_coupon_expired_";
+
+        /**
+         * 单 hash 布局时用户所有状态的优惠券 key 前缀
+         */
+        public static final String USER_COUPON = "imooc_user_coupon_all_";
+
+        /**
+         * 用户优惠券主键序列 key, 已经改为数据库序列表, 只在初始化序列表时读取
+         */
+        public static final String COUPON_ID_SEQ = "imooc_coupon_id_seq";
+
+        /**
+         * 批量分发任务状态 key 前缀
+         */
+        public static final String DISTRIBUTE_JOB = "imooc_coupon_distribute_job_";
+
+        /**
+         * 批量分发任务当前批次已经取出的优惠券码 key 前缀
+         * 每个优惠券码列表一个: 前缀 + 任务id + "_{" + 优惠券码列表的 key + "}", 和优惠券码列表在同一个 slot
+         */
+        public static final String DISTRIBUTE_JOB_CODES = "imooc_coupon_distribute_job_codes_";
+
+        /**
+         * 批量分发任务已经提交的用户 key 前缀, 用于跳过用户id文件中重复的用户
+         */
+        public static final String DISTRIBUTE_JOB_USERS = "imooc_coupon_distribute_job_users_";
+
+        /**
+         * 批量分发任务执行权 key 前缀
+         */
+        public static final String DISTRIBUTE_JOB_LOCK = "imooc_coupon_distribute_job_lock_";
+
+        /**
+         * 用户优惠券缓存重建租约 key 前缀, 同一时间只有一个节点从数据库加载
+         */
+        public static final String USER_COUPON_LOAD_LEASE = "imooc_user_coupon_load_lease_";
+
+        /**
+         * 用户可用优惠券的过期时间索引 key 前缀, member 是优惠券id, score 是过期时间
+         */
+        public static final String USER_COUPON_EXPIRATION = "imooc_user_coupon_expiration_";
+
+        /**
+         * 所有用户最早过期时间的索引 key, member 是用户id, score 是用户最早过期的优惠券的过期时间
+         */
+        public static final String USER_COUPON_EXPIRATION_USERS = "imooc_user_coupon_expiration_users";
+
+        /**
+         * 最近领取了优惠券的用户 key, member 是用户id, score 是领取时间
+         * 布隆过滤器判断用户没有优惠券时再查询这里, 丢失了 pub/sub 消息也不会误判
+         */
+        public static final String USER_COUPON_ACQUIRED_USERS = "imooc_user_coupon_acquired_users";
+
+        /**
+         * 用户每个模版的可用优惠券个数 key 前缀, field 是模版id
+         */
+        public static final String USER_COUPON_TEMPLATE_COUNT = "imooc_user_coupon_template_count_";
+
+        /**
+         * 等待写入数据库的优惠券状态变化 key 前缀 + 优惠券id, value 是目标状态
+         * 其他服务发来的状态变化早于 write-behind 写入时暂存在这里, 优惠券写入数据库之后执行
+         */
+        public static final String COUPON_PENDING_STATUS = "imooc_coupon_pending_status_";
+
+        /**
+         * 优惠券模版集合的版本号 key, 每次模版变化加一
+         */
+        public static final String TEMPLATE_VERSION = "imooc_coupon_template_version";
+
+        /**
+         * 优惠券模版变化记录 key, member 是模版id, score 是模版最后一次变化的版本号
+         */
+        public static final String TEMPLATE_CHANGES = "imooc_coupon_template_changes";
     }
 
 }
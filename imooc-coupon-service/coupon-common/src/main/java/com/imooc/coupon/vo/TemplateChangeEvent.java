@@ -0,0 +1,52 @@
+package com.imooc.coupon.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 优惠券模版变化事件
+ * 每个事件都包含模版变化后的完整状态, 日志压缩后只保留每个模版最后一个事件也可以恢复所有模版
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:30
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TemplateChangeEvent {
+
+    /**
+     * 优惠券模版主键
+     */
+    private Integer templateId;
+
+    /**
+     * 这次变化对应的模版集合版本号
+     */
+    private Long version;
+
+    /**
+     * 是否可用(优惠券码已经生成)
+     */
+    private Boolean available;
+
+    /**
+     * 是否过期
+     */
+    private Boolean expired;
+
+    /**
+     * 变化后的模版信息
+     */
+    private CouponTemplateSDK template;
+
+    /**
+     * 模版是否可以领取
+     *
+     * @return
+     */
+    public boolean usable() {
+        return Boolean.TRUE.equals(available) && !Boolean.TRUE.equals(expired);
+    }
+}
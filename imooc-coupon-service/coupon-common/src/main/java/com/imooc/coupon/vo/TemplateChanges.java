@@ -0,0 +1,39 @@
+package com.imooc.coupon.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 某个版本之后发生变化的优惠券模版
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:30
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TemplateChanges {
+
+    /**
+     * 返回的变化对应的模版集合版本, 下一次从这个版本开始查询
+     */
+    private Long version;
+
+    /**
+     * 是否是全量数据, 为 true 时 templates 是所有可用的模版, 需要替换本地的全部模版
+     */
+    private Boolean full;
+
+    /**
+     * 变化后可用的模版
+     */
+    private List<CouponTemplateSDK> templates;
+
+    /**
+     * 变化后不再可用的模版id
+     */
+    private List<Integer> removedIds;
+}
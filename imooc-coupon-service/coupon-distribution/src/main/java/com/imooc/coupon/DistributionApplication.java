@@ -8,6 +8,7 @@ import org.springframework.cloud.netflix.eureka.EnableEurekaClient;
 import org.springframework.cloud.openfeign.EnableFeignClients;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.client.RestTemplate;
 
 /**
@@ -19,6 +20,7 @@ import org.springframework.web.client.RestTemplate;
 @EnableFeignClients //通过feign调用其他微服务
 @EnableJpaAuditing  //jpa审计功能
 @EnableCircuitBreaker   //熔断降级功能
+@EnableScheduling   //定时任务
 @EnableEurekaClient
 @SpringBootApplication
 public class DistributionApplication {
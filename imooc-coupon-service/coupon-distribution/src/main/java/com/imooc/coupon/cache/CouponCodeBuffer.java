@@ -0,0 +1,320 @@
+package com.imooc.coupon.cache;
+
+import com.imooc.coupon.constant.Constant;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 优惠券码本地预取缓冲
+ * 每个热点模版在本节点保留一小批优惠券码, 领取时直接从内存中获取, 不需要访问 redis;
+ * 缓冲不足一半时异步从 redis 批量弹出(lua 脚本保证原子)补充
+ *
+ * 缓冲大小根据消费速度自适应: 两次补充间隔很短说明消费快, 批量翻倍; 间隔很长说明消费慢, 批量减半
+ * 长时间没有领取的模版(包括已过期的模版)以及节点关闭时, 缓冲中的优惠券码会放回 redis
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 18:55
+ */
+@Slf4j
+@Component
+public class CouponCodeBuffer {
+
+    /**
+     * 补充间隔小于该值时批量翻倍
+     */
+    private static final long FAST_REFILL_MILLIS = 1000;
+
+    /**
+     * 补充间隔大于该值时批量减半
+     */
+    private static final long SLOW_REFILL_MILLIS = 10000;
+
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * 优惠券模版售罄状态, 优惠券码放回 redis 时清除
+     */
+    private final SoldOutRegistry soldOutRegistry;
+
+    /**
+     * 批量弹出优惠券码的脚本
+     */
+    private final DefaultRedisScript<List> multiPopScript;
+
+    /**
+     * 异步补充缓冲的线程池, 队列满时拒绝提交, 由提交方清除补充标记, 下次领取时会再次触发
+     */
+    private final ThreadPoolExecutor refillExecutor = new ThreadPoolExecutor(
+            1, 2, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(64),
+            runnable -> new Thread(runnable, "Imooc_CouponCodeBuffer"),
+            new ThreadPoolExecutor.AbortPolicy()
+    );
+
+    /**
+     * key: 模版id, value: 模版的优惠券码缓冲
+     */
+    private final Map<Integer, TemplateBuffer> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * 是否开启本地预取
+     */
+    @Value("${coupon.code-buffer.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 最小批量
+     */
+    @Value("${coupon.code-buffer.min-batch:16}")
+    private int minBatch;
+
+    /**
+     * 最大批量
+     */
+    @Value("${coupon.code-buffer.max-batch:1024}")
+    private int maxBatch;
+
+    /**
+     * 模版多长时间没有领取之后归还缓冲(秒)
+     */
+    @Value("${coupon.code-buffer.idle-seconds:300}")
+    private long idleSeconds;
+
+    @Autowired
+    public CouponCodeBuffer(StringRedisTemplate redisTemplate, SoldOutRegistry soldOutRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.soldOutRegistry = soldOutRegistry;
+        this.multiPopScript = new DefaultRedisScript<>();
+        this.multiPopScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/coupon_code_multi_pop.lua")));
+        this.multiPopScript.setResultType(List.class);
+    }
+
+    /**
+     * 从本地缓冲中获取优惠券码
+     *
+     * @param templateId 优惠券模版主键
+     * @return 优惠券码, 未开启或缓冲无法提供时返回 null, 由调用方直接访问 redis
+     */
+    public String acquire(Integer templateId) {
+        if (!enabled) {
+            return null;
+        }
+
+        TemplateBuffer buffer = buffers.computeIfAbsent(templateId, id -> new TemplateBuffer(minBatch));
+        if (buffer.closed) {
+            return null;
+        }
+        buffer.lastAccess = System.currentTimeMillis();
+
+        String couponCode = buffer.poll();
+        if (null != couponCode) {
+            if (buffer.size.get() < buffer.batchSize / 2 && buffer.refilling.compareAndSet(false, true)) {
+                try {
+                    refillExecutor.execute(() -> refill(templateId, buffer));
+                } catch (RejectedExecutionException ex) {
+                    // 任务没有提交, refill 的 finally 不会执行, 这里清除标记, 否则缓冲再也不会补充
+                    buffer.refilling.set(false);
+                    log.warn("Refill CouponCode Buffer Rejected: {}", templateId);
+                }
+            }
+            return couponCode;
+        }
+
+        // 缓冲为空, 只有一个线程同步补充, 其他线程直接访问 redis
+        if (buffer.refilling.compareAndSet(false, true)) {
+            refill(templateId, buffer);
+            return buffer.poll();
+        }
+        return null;
+    }
+
+    /**
+     * 从 redis 中批量弹出优惠券码补充缓冲
+     *
+     * @param templateId
+     * @param buffer
+     */
+    @SuppressWarnings("unchecked")
+    private void refill(Integer templateId, TemplateBuffer buffer) {
+        try {
+            adjustBatchSize(buffer);
+
+            int need = buffer.batchSize - buffer.size.get();
+            String redisKeyPrefix = String.format("%s%s", Constant.RedisPrefix.COUPON_TEMPLATE, templateId);
+            int start = ThreadLocalRandom.current().nextInt(Constant.COUPON_CODE_SHARD_NUM);
+
+            // 已经发现为空的子列表直接跳过, 弹出的个数不足说明子列表已经为空
+            for (int i = 0; i != Constant.COUPON_CODE_SHARD_NUM && need > 0; i++) {
+                int shard = (start + i) % Constant.COUPON_CODE_SHARD_NUM;
+                if (soldOutRegistry.isShardEmpty(templateId, shard)) {
+                    continue;
+                }
+                String redisKey = String.format("%s_%s", redisKeyPrefix, shard);
+                int popped = buffer.offer(redisTemplate.execute(
+                        multiPopScript, Collections.singletonList(redisKey), String.valueOf(need)));
+                if (popped < need) {
+                    soldOutRegistry.markShardEmpty(templateId, shard);
+                }
+                need -= popped;
+            }
+            if (need > 0 && !soldOutRegistry.isShardEmpty(templateId, Constant.COUPON_CODE_SHARD_NUM)) {
+                // 兼容未拆分子列表的模版
+                if (buffer.offer(redisTemplate.execute(
+                        multiPopScript, Collections.singletonList(redisKeyPrefix), String.valueOf(need))) < need) {
+                    soldOutRegistry.markShardEmpty(templateId, Constant.COUPON_CODE_SHARD_NUM);
+                }
+            }
+
+            log.debug("Refill CouponCode Buffer: {}, size: {}, batch: {}",
+                    templateId, buffer.size.get(), buffer.batchSize);
+        } catch (Exception ex) {
+            log.error("Refill CouponCode Buffer Error: {}, {}", templateId, ex.getMessage());
+        } finally {
+            buffer.lastRefill = System.currentTimeMillis();
+            buffer.refilling.set(false);
+            // 补充过程中缓冲已经被归还, 新弹出的优惠券码也需要放回 redis
+            if (buffer.closed) {
+                returnCodes(templateId, buffer);
+            }
+        }
+    }
+
+    /**
+     * 根据两次补充的间隔调整批量
+     *
+     * @param buffer
+     */
+    private void adjustBatchSize(TemplateBuffer buffer) {
+        long interval = System.currentTimeMillis() - buffer.lastRefill;
+        if (interval < FAST_REFILL_MILLIS) {
+            buffer.batchSize = Math.min(maxBatch, buffer.batchSize * 2);
+        } else if (interval > SLOW_REFILL_MILLIS) {
+            buffer.batchSize = Math.max(minBatch, buffer.batchSize / 2);
+        }
+    }
+
+    /**
+     * 归还长时间没有领取的模版的优惠券码, 过期的模版不会再被领取, 也会在这里归还
+     */
+    @Scheduled(fixedRate = 60 * 1000)
+    public void returnIdleBuffers() {
+        long deadline = System.currentTimeMillis() - idleSeconds * 1000;
+        buffers.forEach((templateId, buffer) -> {
+            if (buffer.lastAccess < deadline && buffers.remove(templateId, buffer)) {
+                buffer.closed = true;
+                returnCodes(templateId, buffer);
+            }
+        });
+    }
+
+    /**
+     * 节点关闭时归还所有缓冲中的优惠券码
+     */
+    @PreDestroy
+    public void returnAllBuffers() {
+        refillExecutor.shutdown();
+        try {
+            refillExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        buffers.forEach((templateId, buffer) -> {
+            buffer.closed = true;
+            returnCodes(templateId, buffer);
+        });
+        buffers.clear();
+    }
+
+    /**
+     * 将缓冲中的优惠券码放回 redis
+     *
+     * @param templateId
+     * @param buffer
+     */
+    private void returnCodes(Integer templateId, TemplateBuffer buffer) {
+        List<String> codes = new ArrayList<>(buffer.size.get());
+        String code;
+        while (null != (code = buffer.poll())) {
+            codes.add(code);
+        }
+        if (codes.isEmpty()) {
+            return;
+        }
+
+        String redisKey = String.format("%s%s_%s", Constant.RedisPrefix.COUPON_TEMPLATE, templateId,
+                ThreadLocalRandom.current().nextInt(Constant.COUPON_CODE_SHARD_NUM));
+        redisTemplate.opsForList().rightPushAll(redisKey, codes);
+        soldOutRegistry.markRestocked(templateId);
+        log.info("Return CouponCode Buffer To Redis: {}, {}, {}", templateId, redisKey, codes.size());
+    }
+
+    /**
+     * 单个模版的优惠券码缓冲
+     */
+    private static class TemplateBuffer {
+
+        private final Queue<String> codes = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 缓冲中优惠券码的个数, ConcurrentLinkedQueue 的 size 需要遍历
+         */
+        private final AtomicInteger size = new AtomicInteger();
+
+        /**
+         * 是否正在补充
+         */
+        private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+        /**
+         * 当前批量
+         */
+        private volatile int batchSize;
+
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private volatile long lastRefill = 0;
+
+        /**
+         * 缓冲是否已经归还, 归还之后不再提供优惠券码
+         */
+        private volatile boolean closed = false;
+
+        TemplateBuffer(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        String poll() {
+            String code = codes.poll();
+            if (null != code) {
+                size.decrementAndGet();
+            }
+            return code;
+        }
+
+        int offer(List<String> newCodes) {
+            if (null == newCodes) {
+                return 0;
+            }
+            codes.addAll(newCodes);
+            size.addAndGet(newCodes.size());
+            return newCodes.size();
+        }
+    }
+}
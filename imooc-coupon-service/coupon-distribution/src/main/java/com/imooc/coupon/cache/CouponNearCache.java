@@ -0,0 +1,146 @@
+package com.imooc.coupon.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.imooc.coupon.constant.Constant;
+import com.imooc.coupon.constant.CouponStatus;
+import com.imooc.coupon.entity.Coupon;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 用户优惠券列表的本地缓存
+ * 放在 redis 缓存之前, 同一个用户短时间内多次查询时不再访问 redis 和反序列化;
+ * 用户的缓存发生变化时清除本地缓存, 并通过 redis 的 pub/sub 通知其他节点清除
+ * 广播和写入之间存在竞争, 过期时间保证本地缓存最多只会在很短的时间内不一致
+ * 写入和读取时都复制优惠券对象, 调用方修改返回的优惠券不会影响缓存和其他请求
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:05
+ */
+@Slf4j
+@Component
+public class CouponNearCache implements MessageListener {
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${coupon.near-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${coupon.near-cache.max-size:10000}")
+    private long maxSize;
+
+    @Value("${coupon.near-cache.ttl-millis:5000}")
+    private long ttlMillis;
+
+    /**
+     * userId_status -> 优惠券列表
+     */
+    private Cache<String, List<Coupon>> cache;
+
+    @Autowired
+    public CouponNearCache(StringRedisTemplate redisTemplate, MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        // 命中率、淘汰次数等指标: cache.gets, cache.evictions, cache.size ...
+        GuavaCacheMetrics.monitor(meterRegistry, cache, "coupon.near-cache");
+    }
+
+    /**
+     * 获取本地缓存的优惠券列表
+     *
+     * @param userId
+     * @param status
+     * @return 不存在时返回 null
+     */
+    public List<Coupon> get(Long userId, Integer status) {
+        if (!enabled) {
+            return null;
+        }
+        List<Coupon> coupons = cache.getIfPresent(cacheKey(userId, status));
+        return Coupon.copyAll(coupons);
+    }
+
+    /**
+     * 缓存从 redis 中读取的优惠券列表
+     *
+     * @param userId
+     * @param status
+     * @param coupons
+     */
+    public void put(Long userId, Integer status, List<Coupon> coupons) {
+        if (enabled) {
+            cache.put(cacheKey(userId, status), Coupon.copyAll(coupons));
+        }
+    }
+
+    /**
+     * 用户的优惠券缓存发生了变化, 清除本地缓存并通知其他节点
+     *
+     * @param userIds
+     */
+    public void invalidate(Collection<Long> userIds) {
+        if (!enabled || userIds.isEmpty()) {
+            return;
+        }
+        userIds.forEach(this::invalidateLocal);
+        redisTemplate.convertAndSend(Constant.USER_COUPON_INVALIDATE_CHANNEL,
+                userIds.stream().distinct().map(Object::toString).collect(Collectors.joining(",")));
+    }
+
+    /**
+     * 接收其他节点发布的用户缓存变化
+     *
+     * @param message
+     * @param pattern
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (!enabled) {
+            return;
+        }
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (String userId : body.split(",")) {
+            try {
+                invalidateLocal(Long.valueOf(userId));
+            } catch (NumberFormatException ex) {
+                log.warn("Unknown User Coupon Invalidate Message: {}", body);
+            }
+        }
+    }
+
+    private void invalidateLocal(Long userId) {
+        for (CouponStatus status : CouponStatus.values()) {
+            cache.invalidate(cacheKey(userId, status.getCode()));
+        }
+    }
+
+    private static String cacheKey(Long userId, Integer status) {
+        return userId + "_" + status;
+    }
+}
@@ -0,0 +1,180 @@
+package com.imooc.coupon.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.RandomUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 热点用户优惠券缓存的提前续期
+ * 记录每个用户缓存 key 在一个统计周期内的读取次数, 周期结束时对读取次数达到阈值、
+ * 并且即将过期的 key 重新设置随机的过期时间, 活跃用户的缓存不会在请求中过期重建
+ * 缓存的内容由所有写操作同步维护, 续期不需要从数据库重新加载
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:15
+ */
+@Slf4j
+@Component
+public class RefreshAhead {
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${coupon.refresh-ahead.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 最多统计的 key 个数
+     */
+    @Value("${coupon.refresh-ahead.max-keys:100000}")
+    private long maxKeys;
+
+    /**
+     * 一个周期内读取次数达到多少算热点
+     */
+    @Value("${coupon.refresh-ahead.min-hits:5}")
+    private long minHits;
+
+    /**
+     * 剩余的过期时间小于多少时续期
+     */
+    @Value("${coupon.refresh-ahead.ahead-seconds:600}")
+    private long aheadSeconds;
+
+    /**
+     * 每个周期最多续期的 key 个数, 限制后台的工作量
+     */
+    @Value("${coupon.refresh-ahead.max-per-run:1000}")
+    private int maxPerRun;
+
+    /**
+     * redis key -> 本周期的读取次数
+     */
+    private Cache<String, AtomicLong> hits;
+
+    private Counter refreshedCounter;
+
+    private Counter skippedCounter;
+
+    private Timer runTimer;
+
+    @Autowired
+    public RefreshAhead(StringRedisTemplate redisTemplate, MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        hits = CacheBuilder.newBuilder().maximumSize(maxKeys).build();
+        Gauge.builder("coupon.refresh-ahead.tracked", hits, Cache::size).register(meterRegistry);
+        refreshedCounter = meterRegistry.counter("coupon.refresh-ahead.refreshed");
+        // 热点 key 超过每个周期的上限没有检查
+        skippedCounter = meterRegistry.counter("coupon.refresh-ahead.skipped");
+        runTimer = meterRegistry.timer("coupon.refresh-ahead.run");
+    }
+
+    /**
+     * 记录一次读取
+     *
+     * @param redisKey 用户优惠券缓存的 key
+     */
+    public void recordAccess(String redisKey) {
+        if (!enabled) {
+            return;
+        }
+        AtomicLong counter = hits.getIfPresent(redisKey);
+        if (null == counter) {
+            counter = new AtomicLong();
+            AtomicLong existing = hits.asMap().putIfAbsent(redisKey, counter);
+            if (null != existing) {
+                counter = existing;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * 每个统计周期结束时, 给即将过期的热点 key 续期, 然后开始新的周期
+     */
+    @Scheduled(fixedDelayString = "${coupon.refresh-ahead.interval-millis:60000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        runTimer.record(this::doRefresh);
+    }
+
+    private void doRefresh() {
+        Map<String, AtomicLong> snapshot = hits.asMap();
+        List<String> hotKeys = snapshot.entrySet().stream()
+                .filter(entry -> entry.getValue().get() >= minHits)
+                .sorted((a, b) -> Long.compare(b.getValue().get(), a.getValue().get()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        hits.invalidateAll();
+        if (hotKeys.isEmpty()) {
+            return;
+        }
+        if (hotKeys.size() > maxPerRun) {
+            skippedCounter.increment(hotKeys.size() - maxPerRun);
+            hotKeys = hotKeys.subList(0, maxPerRun);
+        }
+
+        List<String> keys = hotKeys;
+        List<Object> ttlList = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                keys.forEach(key -> operations.getExpire(key, TimeUnit.SECONDS));
+                return null;
+            }
+        });
+
+        // 已经过期(-2)或者没有过期时间(-1)的 key 不处理
+        List<String> expiring = new ArrayList<>();
+        for (int i = 0; i != keys.size(); i++) {
+            Long ttl = (Long) ttlList.get(i);
+            if (null != ttl && ttl > 0 && ttl < aheadSeconds) {
+                expiring.add(keys.get(i));
+            }
+        }
+        if (expiring.isEmpty()) {
+            return;
+        }
+
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                expiring.forEach(key -> operations.expire(key,
+                        RandomUtils.nextLong(60 * 60, 2 * 60 * 60), TimeUnit.SECONDS));
+                return null;
+            }
+        });
+        refreshedCounter.increment(expiring.size());
+        log.info("Refresh Ahead Hot User Coupon Cache: {}/{}", expiring.size(), keys.size());
+    }
+}
@@ -0,0 +1,194 @@
+package com.imooc.coupon.cache;
+
+import com.imooc.coupon.constant.Constant;
+import com.imooc.coupon.exception.CouponException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * 缓存重建的合并加载(single-flight)
+ * 同一个 key 在一个节点上同时只有一个请求执行加载, 其他请求等待它的结果;
+ * 配置了租约时间时还会在 redis 中获取一个短租约, 其他节点等待租约释放后直接读取重建好的缓存
+ * 等待的请求得到的是结果的副本, 不会和加载的请求共享可变对象
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:15
+ */
+@Slf4j
+@Component
+public class SingleFlight {
+
+    /**
+     * 等待其他节点加载时检查租约的间隔
+     */
+    private static final long POLL_MILLIS = 20;
+
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * 释放租约的脚本, 只删除当前节点持有的租约
+     */
+    private final DefaultRedisScript<Long> releaseLeaseScript;
+
+    /**
+     * 正在加载的 key -> 加载结果
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 当前节点的标识, 作为租约的值
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /**
+     * redis 租约的时间, 0 表示只在节点内合并
+     */
+    @Value("${coupon.single-flight.lease-millis:0}")
+    private long leaseMillis;
+
+    @Autowired
+    public SingleFlight(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+        this.releaseLeaseScript = new DefaultRedisScript<>();
+        this.releaseLeaseScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/compare_and_delete.lua")));
+        this.releaseLeaseScript.setResultType(Long.class);
+    }
+
+    /**
+     * 加载数据
+     *
+     * @param <V>
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        /**
+         * 加载数据
+         *
+         * @return
+         * @throws CouponException
+         */
+        V load() throws CouponException;
+    }
+
+    /**
+     * 合并执行同一个 key 的加载, 结果是不可变对象, 等待的请求直接共享
+     *
+     * @param key    加载的 key
+     * @param loader 从数据库加载并写入缓存
+     * @param reader 其他节点加载完成之后读取缓存, 返回 null 时自己加载
+     * @return
+     * @throws CouponException
+     */
+    public <V> V execute(String key, Loader<V> loader, Loader<V> reader) throws CouponException {
+        return execute(key, loader, reader, UnaryOperator.identity());
+    }
+
+    /**
+     * 合并执行同一个 key 的加载
+     *
+     * @param key    加载的 key
+     * @param loader 从数据库加载并写入缓存
+     * @param reader 其他节点加载完成之后读取缓存, 返回 null 时自己加载
+     * @param copier 复制结果, 每个等待的请求得到一个副本
+     * @return
+     * @throws CouponException
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V execute(String key, Loader<V> loader, Loader<V> reader, UnaryOperator<V> copier)
+            throws CouponException {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (null != existing) {
+            log.debug("Wait For In Flight Load: {}", key);
+            return copier.apply((V) await(key, existing));
+        }
+
+        try {
+            V value = loadWithLease(key, loader, reader);
+            future.complete(value);
+            return value;
+        } catch (CouponException | RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private Object await(String key, CompletableFuture<Object> future) throws CouponException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CouponException("Interrupted While Waiting For Load: " + key);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof CouponException) {
+                throw (CouponException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CouponException(String.valueOf(cause.getMessage()));
+        }
+    }
+
+    /**
+     * 获取到租约(或者没有配置租约)时自己加载, 否则等待其他节点加载完成后读取
+     */
+    private <V> V loadWithLease(String key, Loader<V> loader, Loader<V> reader) throws CouponException {
+        if (leaseMillis <= 0) {
+            return loader.load();
+        }
+
+        String leaseKey = Constant.RedisPrefix.USER_COUPON_LOAD_LEASE + key;
+        Boolean acquired = redisTemplate.opsForValue().setIfAbsent(leaseKey, nodeId, leaseMillis, TimeUnit.MILLISECONDS);
+        if (Boolean.TRUE.equals(acquired)) {
+            try {
+                return loader.load();
+            } finally {
+                redisTemplate.execute(releaseLeaseScript, Collections.singletonList(leaseKey), nodeId);
+            }
+        }
+
+        // 其他节点正在加载, 等待租约释放, 超时之后自己加载
+        long deadline = System.currentTimeMillis() + leaseMillis;
+        boolean released = false;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                if (!Boolean.TRUE.equals(redisTemplate.hasKey(leaseKey))) {
+                    released = true;
+                    break;
+                }
+                TimeUnit.MILLISECONDS.sleep(POLL_MILLIS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (released) {
+            V value = reader.load();
+            if (null != value) {
+                log.debug("Read Value Loaded By Other Node: {}", key);
+                return value;
+            }
+        }
+        log.debug("Load After Waiting For Lease: {}, {}", key, released);
+        return loader.load();
+    }
+}
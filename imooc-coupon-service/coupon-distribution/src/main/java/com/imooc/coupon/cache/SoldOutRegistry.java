@@ -0,0 +1,160 @@
+package com.imooc.coupon.cache;
+
+import com.imooc.coupon.constant.Constant;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 优惠券模版售罄状态
+ * 某个节点第一次发现模版的优惠券码领完时, 通过 redis 的 pub/sub 通知所有分发节点,
+ * 之后领取这个模版直接在本地拒绝, 不再访问 redis; 优惠券码补充之后再通知所有节点恢复
+ * 售罄状态有过期时间, 即使丢失了补充的消息也只会在一段时间内拒绝领取
+ * 同时记录本节点发现为空的优惠券码子列表, 领取时跳过这些子列表, 补充时清除
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:05
+ */
+@Slf4j
+@Component
+public class SoldOutRegistry implements MessageListener {
+
+    private static final String SOLD_OUT = "SOLD_OUT";
+
+    private static final String RESTOCK = "RESTOCK";
+
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * 售罄的模版 -> 售罄状态的过期时间
+     */
+    private final ConcurrentHashMap<Integer, Long> soldOutUntil = new ConcurrentHashMap<>();
+
+    /**
+     * 模版 -> 每个子列表为空状态的过期时间, 下标 COUPON_CODE_SHARD_NUM 是未拆分之前的列表
+     */
+    private final ConcurrentHashMap<Integer, AtomicLongArray> emptyShardUntil = new ConcurrentHashMap<>();
+
+    /**
+     * 售罄状态的有效时间
+     */
+    @Value("${coupon.sold-out.ttl-seconds:30}")
+    private long ttlSeconds;
+
+    @Autowired
+    public SoldOutRegistry(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * 模版当前是否售罄, 只访问本地状态
+     *
+     * @param templateId 优惠券模版主键
+     * @return
+     */
+    public boolean isSoldOut(Integer templateId) {
+        Long until = soldOutUntil.get(templateId);
+        if (null == until) {
+            return false;
+        }
+        if (until < System.currentTimeMillis()) {
+            soldOutUntil.remove(templateId, until);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记模版售罄并通知所有节点, 本地已经是售罄状态时不再重复通知
+     *
+     * @param templateId 优惠券模版主键
+     */
+    public void markSoldOut(Integer templateId) {
+        if (isSoldOut(templateId)) {
+            return;
+        }
+        soldOutUntil.put(templateId, expireAt());
+        redisTemplate.convertAndSend(Constant.TEMPLATE_STOCK_CHANNEL, SOLD_OUT + ":" + templateId);
+        log.info("Template Sold Out: {}", templateId);
+    }
+
+    /**
+     * 模版的优惠券码子列表是否已经被本节点发现为空, 只访问本地状态
+     *
+     * @param templateId 优惠券模版主键
+     * @param shard 子列表序号, COUPON_CODE_SHARD_NUM 表示未拆分之前的列表
+     * @return
+     */
+    public boolean isShardEmpty(Integer templateId, int shard) {
+        AtomicLongArray until = emptyShardUntil.get(templateId);
+        return null != until && until.get(shard) > System.currentTimeMillis();
+    }
+
+    /**
+     * 标记模版的优惠券码子列表为空, 之后一段时间内领取时跳过
+     *
+     * @param templateId 优惠券模版主键
+     * @param shard 子列表序号, COUPON_CODE_SHARD_NUM 表示未拆分之前的列表
+     */
+    public void markShardEmpty(Integer templateId, int shard) {
+        emptyShardUntil.computeIfAbsent(templateId, id -> new AtomicLongArray(Constant.COUPON_CODE_SHARD_NUM + 1))
+                .set(shard, expireAt());
+    }
+
+    /**
+     * 优惠券码重新补充, 清除售罄状态并通知所有节点
+     *
+     * @param templateId 优惠券模版主键
+     */
+    public void markRestocked(Integer templateId) {
+        soldOutUntil.remove(templateId);
+        emptyShardUntil.remove(templateId);
+        redisTemplate.convertAndSend(Constant.TEMPLATE_STOCK_CHANNEL, RESTOCK + ":" + templateId);
+        log.info("Template Restocked: {}", templateId);
+    }
+
+    /**
+     * 接收其他节点(以及优惠券模版服务)发布的库存状态
+     *
+     * @param message
+     * @param pattern
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String[] parts = body.split(":");
+        if (parts.length != 2) {
+            log.warn("Unknown Template Stock Message: {}", body);
+            return;
+        }
+
+        Integer templateId;
+        try {
+            templateId = Integer.valueOf(parts[1]);
+        } catch (NumberFormatException ex) {
+            log.warn("Unknown Template Stock Message: {}", body);
+            return;
+        }
+
+        if (SOLD_OUT.equals(parts[0])) {
+            soldOutUntil.put(templateId, expireAt());
+        } else if (RESTOCK.equals(parts[0])) {
+            soldOutUntil.remove(templateId);
+            emptyShardUntil.remove(templateId);
+        }
+        log.debug("Receive Template Stock Message: {}", body);
+    }
+
+    private long expireAt() {
+        return System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+    }
+}
@@ -0,0 +1,148 @@
+package com.imooc.coupon.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.imooc.coupon.feign.TemplateClient;
+import com.imooc.coupon.vo.CommonResponse;
+import com.imooc.coupon.vo.CouponTemplateSDK;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 优惠券模版信息的本地缓存
+ * 用户优惠券缓存中只保存模版id, 读取时从这里填充模版信息, 同一个模版只保存一份
+ * 模版服务不可用(熔断降级)时使用最近一次获取到的模版信息
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:10
+ */
+@Slf4j
+@Component
+public class TemplateCache {
+
+    /**
+     * 模版微服务客户端
+     */
+    private final TemplateClient templateClient;
+
+    /**
+     * 可用模版的本地快照
+     */
+    private final TemplateSnapshot templateSnapshot;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${coupon.template-cache.max-size:10000}")
+    private long maxSize;
+
+    @Value("${coupon.template-cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    @Value("${coupon.template-cache.stale-ttl-seconds:86400}")
+    private long staleTtlSeconds;
+
+    /**
+     * 模版id -> 模版信息
+     */
+    private Cache<Integer, CouponTemplateSDK> cache;
+
+    /**
+     * 模版id -> 最近一次获取到的模版信息, 只在模版服务不可用时使用
+     */
+    private Cache<Integer, CouponTemplateSDK> staleCache;
+
+    @Autowired
+    public TemplateCache(TemplateClient templateClient, TemplateSnapshot templateSnapshot,
+                         MeterRegistry meterRegistry) {
+        this.templateClient = templateClient;
+        this.templateSnapshot = templateSnapshot;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, cache, "coupon.template-cache");
+        staleCache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(staleTtlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 批量获取模版信息, 本地缓存中没有的模版一次请求模版服务
+     * 模版服务不可用时使用最近一次获取到的模版信息, 仍然没有的模版不包含在结果中
+     *
+     * @param ids 模版id
+     * @return 模版id -> 模版信息, 不存在的模版不包含在结果中
+     */
+    public Map<Integer, CouponTemplateSDK> getAll(Collection<Integer> ids) {
+        // 可用的模版从快照中获取, 已经过期的模版才需要缓存或者请求模版服务
+        Map<Integer, CouponTemplateSDK> result = new HashMap<>(templateSnapshot.getAll(ids));
+        result.putAll(cache.getAllPresent(ids.stream()
+                .filter(id -> !result.containsKey(id))
+                .collect(Collectors.toList())));
+
+        List<Integer> missing = ids.stream()
+                .filter(id -> !result.containsKey(id))
+                .distinct()
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            result.putAll(load(missing));
+        }
+        return result;
+    }
+
+    /**
+     * 请求模版服务获取模版信息, 请求失败时从过期的模版信息中获取
+     *
+     * @param ids
+     * @return
+     */
+    private Map<Integer, CouponTemplateSDK> load(List<Integer> ids) {
+        CommonResponse<Map<Integer, CouponTemplateSDK>> response = templateClient.findIds2SDK(ids);
+        Map<Integer, CouponTemplateSDK> loaded = null == response ? null : response.getData();
+        if (null == response || !Objects.equals(response.getCode(), 0) || null == loaded) {
+            Map<Integer, CouponTemplateSDK> stale = staleCache.getAllPresent(ids);
+            log.warn("Load Template From TemplateClient Failed, Use Stale: {}, {}", ids, stale.keySet());
+            return stale;
+        }
+
+        log.debug("Load Template From TemplateClient: {}, {}", ids, loaded.keySet());
+        cache.putAll(loaded);
+        staleCache.putAll(loaded);
+        return loaded;
+    }
+
+    /**
+     * 模版信息发生变化时更新本地缓存
+     *
+     * @param template
+     */
+    public void put(CouponTemplateSDK template) {
+        cache.put(template.getId(), template);
+        staleCache.put(template.getId(), template);
+    }
+
+    /**
+     * 清除模版的本地缓存
+     *
+     * @param templateId
+     */
+    public void invalidate(Integer templateId) {
+        cache.invalidate(templateId);
+    }
+}
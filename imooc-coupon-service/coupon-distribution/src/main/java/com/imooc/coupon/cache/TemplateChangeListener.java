@@ -0,0 +1,59 @@
+package com.imooc.coupon.cache;
+
+import com.alibaba.fastjson.JSON;
+import com.imooc.coupon.constant.Constant;
+import com.imooc.coupon.vo.TemplateChangeEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * 消费优惠券模版变化事件, 立即更新本地的模版快照和模版缓存
+ * 按版本号的定时同步仍然保留, 丢失事件时由定时同步补齐
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:30
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "coupon.template-events.enabled", havingValue = "true")
+public class TemplateChangeListener {
+
+    private final TemplateSnapshot templateSnapshot;
+
+    private final TemplateCache templateCache;
+
+    @Autowired
+    public TemplateChangeListener(TemplateSnapshot templateSnapshot, TemplateCache templateCache) {
+        this.templateSnapshot = templateSnapshot;
+        this.templateCache = templateCache;
+    }
+
+    /**
+     * 每个节点使用自己的消费组, 都能收到所有模版的事件; 消费组由节点地址和端口确定, 重启后继续使用同一个,
+     * 从上次提交的位置继续消费, 不会在 broker 上留下废弃的消费组
+     *
+     * @param record
+     */
+    @KafkaListener(topics = {Constant.TEMPLATE_CHANGE_TOPIC},
+            groupId = "${coupon.template-events.group-id:"
+                    + "imooc-coupon-template-change-${spring.cloud.client.ip-address}-${server.port}}",
+            containerFactory = "templateChangeListenerContainerFactory")
+    public void consumeTemplateChangeEvent(ConsumerRecord<?, ?> record) {
+        if (null == record.value()) {
+            return;
+        }
+        TemplateChangeEvent event = JSON.parseObject(record.value().toString(), TemplateChangeEvent.class);
+        log.info("Consume Template Change Event: {}, {}, {}", event.getTemplateId(), event.getVersion(), event.usable());
+
+        templateSnapshot.apply(event);
+        if (null != event.getTemplate()) {
+            templateCache.put(event.getTemplate());
+        } else {
+            templateCache.invalidate(event.getTemplateId());
+        }
+    }
+}
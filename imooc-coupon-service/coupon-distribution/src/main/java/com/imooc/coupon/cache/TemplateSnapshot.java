@@ -0,0 +1,145 @@
+package com.imooc.coupon.cache;
+
+import com.imooc.coupon.feign.TemplateClient;
+import com.imooc.coupon.vo.CommonResponse;
+import com.imooc.coupon.vo.CouponTemplateSDK;
+import com.imooc.coupon.vo.TemplateChangeEvent;
+import com.imooc.coupon.vo.TemplateChanges;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+
+/**
+ * 所有可用优惠券模版的本地快照
+ * 定时按版本号从模版服务增量同步, 开启模版变化事件时由事件立即更新, 查询可用模版和模版信息不需要远程调用
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:30
+ */
+@Slf4j
+@Component
+public class TemplateSnapshot {
+
+    /**
+     * 模版微服务客户端
+     */
+    private final TemplateClient templateClient;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${coupon.template-snapshot.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 模版id -> 可用的模版信息, 每次同步替换为新的不可变 Map
+     */
+    private volatile Map<Integer, CouponTemplateSDK> templates = Collections.emptyMap();
+
+    /**
+     * 已经同步到的版本号, -1 表示还没有同步成功
+     */
+    private volatile long version = -1;
+
+    @Autowired
+    public TemplateSnapshot(TemplateClient templateClient, MeterRegistry meterRegistry) {
+        this.templateClient = templateClient;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("coupon.template-snapshot.version", this, snapshot -> snapshot.version)
+                .register(meterRegistry);
+        Gauge.builder("coupon.template-snapshot.size", this, snapshot -> snapshot.templates.size())
+                .register(meterRegistry);
+    }
+
+    /**
+     * 快照是否可以使用, 没有开启或者还没有同步成功时需要调用模版服务
+     *
+     * @return
+     */
+    public boolean isReady() {
+        return enabled && version >= 0;
+    }
+
+    /**
+     * 所有可用的模版
+     *
+     * @return
+     */
+    public Collection<CouponTemplateSDK> findAll() {
+        return templates.values();
+    }
+
+    /**
+     * 批量获取可用的模版信息
+     *
+     * @param ids 模版id
+     * @return 模版id -> 模版信息, 不可用或不存在的模版不包含在结果中
+     */
+    public Map<Integer, CouponTemplateSDK> getAll(Collection<Integer> ids) {
+        if (!isReady()) {
+            return Collections.emptyMap();
+        }
+        Map<Integer, CouponTemplateSDK> current = templates;
+        Map<Integer, CouponTemplateSDK> result = new HashMap<>(ids.size());
+        ids.forEach(id -> {
+            CouponTemplateSDK template = current.get(id);
+            if (null != template) {
+                result.put(id, template);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 应用一个模版变化事件
+     *
+     * @param event
+     */
+    public synchronized void apply(TemplateChangeEvent event) {
+        Map<Integer, CouponTemplateSDK> next = new HashMap<>(templates);
+        if (event.usable() && null != event.getTemplate()) {
+            next.put(event.getTemplateId(), event.getTemplate());
+        } else {
+            next.remove(event.getTemplateId());
+        }
+        templates = Collections.unmodifiableMap(next);
+    }
+
+    /**
+     * 从模版服务同步上一次版本之后变化的模版
+     */
+    @Scheduled(fixedDelayString = "${coupon.template-snapshot.sync-millis:5000}")
+    public synchronized void sync() {
+        if (!enabled) {
+            return;
+        }
+        CommonResponse<TemplateChanges> response = templateClient.findTemplateChanges(version);
+        TemplateChanges changes = null == response ? null : response.getData();
+        if (null == changes || null == changes.getVersion()) {
+            log.warn("Sync Template Snapshot Failed: {}", version);
+            return;
+        }
+
+        Map<Integer, CouponTemplateSDK> next = changes.getFull()
+                ? new HashMap<>(changes.getTemplates().size()) : new HashMap<>(templates);
+        changes.getTemplates().forEach(template -> next.put(template.getId(), template));
+        changes.getRemovedIds().forEach(next::remove);
+        templates = Collections.unmodifiableMap(next);
+
+        if (changes.getFull() || changes.getVersion() != version) {
+            log.info("Sync Template Snapshot: {} -> {}, full: {}, size: {}",
+                    version, changes.getVersion(), changes.getFull(), next.size());
+        }
+        version = changes.getVersion();
+    }
+}
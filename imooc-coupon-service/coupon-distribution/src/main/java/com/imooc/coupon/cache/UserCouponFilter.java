@@ -0,0 +1,201 @@
+package com.imooc.coupon.cache;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.imooc.coupon.constant.Constant;
+import com.imooc.coupon.dao.CouponBatchDao;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 领取过优惠券的用户的布隆过滤器, 用来代替缓存穿透保护中为每个用户写入的无效优惠券
+ * 过滤器中不存在的用户一定没有优惠券, 不需要查询数据库, 也不需要写入任何 key;
+ * 误判只会多查询一次数据库
+ * 过滤器只增不减: 领取优惠券时加入并通过 redis 的 pub/sub 通知其他节点, 定时从数据库重新构建,
+ * 重新构建期间和之后的一个周期内同时查询新旧两个过滤器, 构建过程中丢失的消息不会导致误判
+ * 领取优惠券的用户同时写入 redis 的有序集合, 过滤器判断没有优惠券时再查询一次, 丢失的 pub/sub 消息不会导致误判;
+ * 有序集合只保留最近两个周期内领取的用户, 更早的用户已经包含在从数据库构建的过滤器中
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:15
+ */
+@Slf4j
+@Component
+public class UserCouponFilter implements MessageListener {
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final CouponBatchDao couponBatchDao;
+
+    @Value("${coupon.user-filter.enabled:false}")
+    private boolean enabled;
+
+    @Value("${coupon.user-filter.expected-users:5000000}")
+    private int expectedUsers;
+
+    @Value("${coupon.user-filter.fpp:0.01}")
+    private double fpp;
+
+    @Value("${coupon.user-filter.rotate-millis:3600000}")
+    private long rotateMillis;
+
+    /**
+     * 当前的过滤器, 第一次构建完成之前为 null, 此时认为所有用户都可能有优惠券
+     */
+    private BloomFilter<Long> current;
+
+    /**
+     * 上一个周期的过滤器
+     */
+    private BloomFilter<Long> previous;
+
+    /**
+     * 正在构建的过滤器
+     */
+    private BloomFilter<Long> building;
+
+    @Autowired
+    public UserCouponFilter(StringRedisTemplate redisTemplate, CouponBatchDao couponBatchDao) {
+        this.redisTemplate = redisTemplate;
+        this.couponBatchDao = couponBatchDao;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 用户是否可能领取过优惠券
+     *
+     * @param userId
+     * @return false 表示用户一定没有优惠券
+     */
+    public boolean mightHaveCoupons(Long userId) {
+        synchronized (this) {
+            if (!enabled || null == current) {
+                return true;
+            }
+            if (current.mightContain(userId) || (null != previous && previous.mightContain(userId))) {
+                return true;
+            }
+        }
+
+        // 过滤器中没有, 可能是丢失了其他节点的消息, 再查询最近领取了优惠券的用户
+        try {
+            if (null == redisTemplate.opsForZSet().score(
+                    Constant.RedisPrefix.USER_COUPON_ACQUIRED_USERS, userId.toString())) {
+                return false;
+            }
+        } catch (RuntimeException ex) {
+            log.error("Check User Coupon Acquired Error: {}, {}", userId, ex.getMessage());
+            return true;
+        }
+        put(userId);
+        return true;
+    }
+
+    /**
+     * 用户领取了优惠券, 加入过滤器并通知其他节点
+     *
+     * @param userIds
+     */
+    public void markHasCoupons(Collection<Long> userIds) {
+        if (!enabled || userIds.isEmpty()) {
+            return;
+        }
+        userIds.forEach(this::put);
+        double now = System.currentTimeMillis();
+        redisTemplate.opsForZSet().add(Constant.RedisPrefix.USER_COUPON_ACQUIRED_USERS, userIds.stream()
+                .distinct()
+                .map(userId -> new DefaultTypedTuple<>(userId.toString(), now))
+                .collect(Collectors.toSet()));
+        redisTemplate.convertAndSend(Constant.USER_COUPON_ACQUIRED_CHANNEL,
+                userIds.stream().distinct().map(Object::toString).collect(Collectors.joining(",")));
+    }
+
+    /**
+     * 定时从数据库重新构建过滤器, 启动时立即构建一次
+     */
+    @Scheduled(fixedDelayString = "${coupon.user-filter.rotate-millis:3600000}")
+    public void rotate() {
+        if (!enabled) {
+            return;
+        }
+
+        Stopwatch watch = Stopwatch.createStarted();
+        long startTime = System.currentTimeMillis();
+        BloomFilter<Long> filter = BloomFilter.create(Funnels.longFunnel(), expectedUsers, fpp);
+        synchronized (this) {
+            building = filter;
+        }
+        try {
+            couponBatchDao.forEachUserId(userId -> {
+                synchronized (this) {
+                    filter.put(userId);
+                }
+            });
+        } catch (RuntimeException ex) {
+            log.error("Build User Coupon Filter Error: {}", ex.getMessage());
+            synchronized (this) {
+                building = null;
+            }
+            return;
+        }
+
+        synchronized (this) {
+            previous = current;
+            current = filter;
+            building = null;
+        }
+
+        // 构建开始之前一个周期领取的用户已经写入数据库(包括延迟写入), 不再需要保留
+        redisTemplate.opsForZSet().removeRangeByScore(Constant.RedisPrefix.USER_COUPON_ACQUIRED_USERS,
+                Double.NEGATIVE_INFINITY, startTime - rotateMillis);
+        watch.stop();
+        log.info("Rotate User Coupon Filter Cost: {}ms, Expected Fpp: {}",
+                watch.elapsed(TimeUnit.MILLISECONDS), filter.expectedFpp());
+    }
+
+    /**
+     * 接收其他节点发布的领取优惠券的用户
+     *
+     * @param message
+     * @param pattern
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (!enabled) {
+            return;
+        }
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (String userId : body.split(",")) {
+            try {
+                put(Long.valueOf(userId));
+            } catch (NumberFormatException ex) {
+                log.warn("Unknown User Coupon Acquired Message: {}", body);
+            }
+        }
+    }
+
+    private synchronized void put(Long userId) {
+        if (null != current) {
+            current.put(userId);
+        }
+        if (null != building) {
+            building.put(userId);
+        }
+    }
+}
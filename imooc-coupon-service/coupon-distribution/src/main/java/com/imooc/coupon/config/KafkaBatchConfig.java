@@ -0,0 +1,40 @@
+package com.imooc.coupon.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.SeekToCurrentBatchErrorHandler;
+
+/**
+ * 批量消费 Kafka 消息的配置
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:00
+ */
+@Configuration
+public class KafkaBatchConfig {
+
+    private final ConsumerFactory<Object, Object> consumerFactory;
+
+    @Autowired
+    public KafkaBatchConfig(ConsumerFactory<Object, Object> consumerFactory) {
+        this.consumerFactory = consumerFactory;
+    }
+
+    /**
+     * 批量监听容器, 一次 poll 到的消息作为一批交给监听方法;
+     * 处理失败时回退到这一批的起始位置重新消费, 不丢消息
+     *
+     * @return
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> batchListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory);
+        factory.setBatchListener(true);
+        factory.setBatchErrorHandler(new SeekToCurrentBatchErrorHandler());
+        return factory;
+    }
+}
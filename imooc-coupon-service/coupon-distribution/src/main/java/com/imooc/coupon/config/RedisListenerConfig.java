@@ -0,0 +1,43 @@
+package com.imooc.coupon.config;
+
+import com.imooc.coupon.cache.CouponNearCache;
+import com.imooc.coupon.cache.SoldOutRegistry;
+import com.imooc.coupon.cache.UserCouponFilter;
+import com.imooc.coupon.constant.Constant;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * redis pub/sub 订阅的配置
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:05
+ */
+@Configuration
+public class RedisListenerConfig {
+
+    /**
+     * 订阅优惠券模版库存状态、用户优惠券缓存变更、用户领取优惠券的广播
+     *
+     * @param connectionFactory
+     * @param soldOutRegistry
+     * @param couponNearCache
+     * @param userCouponFilter
+     * @return
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       SoldOutRegistry soldOutRegistry,
+                                                                       CouponNearCache couponNearCache,
+                                                                       UserCouponFilter userCouponFilter) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(soldOutRegistry, new ChannelTopic(Constant.TEMPLATE_STOCK_CHANNEL));
+        container.addMessageListener(couponNearCache, new ChannelTopic(Constant.USER_COUPON_INVALIDATE_CHANNEL));
+        container.addMessageListener(userCouponFilter, new ChannelTopic(Constant.USER_COUPON_ACQUIRED_CHANNEL));
+        return container;
+    }
+}
@@ -0,0 +1,35 @@
+package com.imooc.coupon.config;
+
+import com.imooc.coupon.serialization.BytesRedisSerializer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+/**
+ * 用户优惠券缓存使用的 RedisTemplate
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:10
+ */
+@Configuration
+public class RedisTemplateConfig {
+
+    /**
+     * key 和 hash field 是字符串, value 是 CouponCacheCodec 编码后的字节
+     *
+     * @param connectionFactory
+     * @return
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> couponCacheRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setHashKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(new BytesRedisSerializer());
+        template.setHashValueSerializer(new BytesRedisSerializer());
+        return template;
+    }
+}
@@ -0,0 +1,48 @@
+package com.imooc.coupon.config;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+
+import java.util.Map;
+
+/**
+ * 消费优惠券模版变化事件的配置
+ * 每个节点都需要收到所有事件, 使用节点自己的消费组, 每批消息处理完之后提交消费位置, 重启后从提交的位置继续;
+ * 新的消费组从最新的位置开始消费, 启动之前的模版变化由模版快照启动时的全量同步加载
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:30
+ */
+@Configuration
+@ConditionalOnProperty(name = "coupon.template-events.enabled", havingValue = "true")
+public class TemplateEventConsumerConfig {
+
+    private final KafkaProperties kafkaProperties;
+
+    @Autowired
+    public TemplateEventConsumerConfig(KafkaProperties kafkaProperties) {
+        this.kafkaProperties = kafkaProperties;
+    }
+
+    /**
+     * 模版变化事件的监听容器, 由容器在每批消息处理完之后提交消费位置
+     *
+     * @return
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> templateChangeListenerContainerFactory() {
+        Map<String, Object> properties = kafkaProperties.buildConsumerProperties();
+        properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(properties));
+        return factory;
+    }
+}
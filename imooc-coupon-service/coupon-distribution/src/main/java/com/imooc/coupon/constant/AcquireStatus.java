@@ -0,0 +1,25 @@
+package com.imooc.coupon.constant;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 领取优惠券写入缓存的结果
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:00
+ */
+@Getter
+@AllArgsConstructor
+public enum AcquireStatus {
+    SUCCESS("领取成功"),
+    SUCCESS_UNCACHED("领取成功, 但是用户可用优惠券缓存在领取过程中失效, 需要同步写入数据库"),
+    CACHE_MISS("用户可用优惠券缓存不存在"),
+    LIMITED("超过模版的领取限制"),
+    NO_CODE("没有可用的优惠券码");
+
+    /**
+     * 结果描述信息
+     */
+    private String description;
+}
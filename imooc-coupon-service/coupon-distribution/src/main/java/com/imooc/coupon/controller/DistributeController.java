@@ -0,0 +1,59 @@
+package com.imooc.coupon.controller;
+
+import com.alibaba.fastjson.JSON;
+import com.imooc.coupon.exception.CouponException;
+import com.imooc.coupon.service.IDistributeService;
+import com.imooc.coupon.vo.DistributeJobProgress;
+import com.imooc.coupon.vo.DistributeJobRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 批量分发优惠券控制器
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:05
+ */
+@Slf4j
+@RestController
+public class DistributeController {
+
+    /**
+     * 批量分发优惠券服务
+     */
+    private final IDistributeService distributeService;
+
+    @Autowired
+    public DistributeController(IDistributeService distributeService) {
+        this.distributeService = distributeService;
+    }
+
+    /**
+     * 提交批量分发任务
+     * localhost:7002/coupon-distribution/distribute/multi
+     * localhost:9000/imooc/coupon-distribution/distribute/multi
+     *
+     * @param request
+     * @return 任务id
+     */
+    @PostMapping("/distribute/multi")
+    public String distributeMulti(@RequestBody DistributeJobRequest request) throws CouponException {
+        log.info("Submit Distribute Job: {}", JSON.toJSONString(request));
+        return distributeService.submit(request);
+    }
+
+    /**
+     * 查询批量分发任务的进度
+     * localhost:7002/coupon-distribution/distribute/progress?jobId=xxx
+     * localhost:9000/imooc/coupon-distribution/distribute/progress?jobId=xxx
+     *
+     * @param jobId
+     * @return
+     */
+    @GetMapping("/distribute/progress")
+    public DistributeJobProgress progress(@RequestParam("jobId") String jobId) throws CouponException {
+        log.info("Distribute Job Progress: {}", jobId);
+        return distributeService.progress(jobId);
+    }
+}
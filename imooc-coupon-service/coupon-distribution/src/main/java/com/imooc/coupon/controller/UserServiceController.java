@@ -0,0 +1,52 @@
+package com.imooc.coupon.controller;
+
+import com.imooc.coupon.exception.CouponException;
+import com.imooc.coupon.service.IUserService;
+import com.imooc.coupon.vo.CouponPage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 用户优惠券相关功能控制器
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:55
+ */
+@Slf4j
+@RestController
+public class UserServiceController {
+
+    /**
+     * 用户服务
+     */
+    private final IUserService userService;
+
+    @Autowired
+    public UserServiceController(IUserService userService) {
+        this.userService = userService;
+    }
+
+    /**
+     * 根据用户ID和状态分页查询优惠券记录
+     * localhost:7002/coupon-distribution/coupons/page?userId=1&status=1&cursor=&size=100
+     * localhost:9000/imooc/coupon-distribution/coupons/page?userId=1&status=1&cursor=&size=100
+     *
+     * @param userId
+     * @param status
+     * @param cursor 上一页返回的游标, 第一页不传
+     * @param size 每页的个数
+     * @return
+     */
+    @GetMapping("/coupons/page")
+    public CouponPage findCouponsByStatus(@RequestParam("userId") Long userId,
+                                          @RequestParam("status") Integer status,
+                                          @RequestParam(value = "cursor", required = false) String cursor,
+                                          @RequestParam(value = "size", required = false) Integer size)
+            throws CouponException {
+        log.info("Find Coupons By Status: {}, {}, {}, {}", userId, status, cursor, size);
+        return userService.findCouponsByStatus(userId, status, "".equals(cursor) ? null : cursor, size);
+    }
+}
@@ -0,0 +1,93 @@
+package com.imooc.coupon.dao;
+
+import com.imooc.coupon.constant.CouponStatus;
+import com.imooc.coupon.vo.CouponInsertMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * coupon 表的批量读写
+ * 主键是预先分配的, 使用 insert ignore, 重复写入同一批数据没有副作用
+ * 状态只从可用变为已使用或已过期, 重复更新同样没有副作用
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:00
+ */
+@Slf4j
+@Repository
+public class CouponBatchDao {
+
+    private static final String INSERT_IGNORE_SQL = "INSERT IGNORE INTO coupon " +
+            "(id, template_id, user_id, coupon_code, assign_time, status) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_STATUS_SQL = "UPDATE coupon SET status = ? WHERE id = ? AND status = ?";
+
+    private static final String SELECT_USER_ID_SQL = "SELECT DISTINCT user_id FROM coupon";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public CouponBatchDao(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 批量插入优惠券记录
+     *
+     * @param couponList
+     * @return 提交的记录数
+     */
+    public int batchInsert(List<CouponInsertMessage> couponList) {
+        jdbcTemplate.batchUpdate(INSERT_IGNORE_SQL, couponList, couponList.size(), (ps, coupon) -> {
+            ps.setInt(1, coupon.getId());
+            ps.setInt(2, coupon.getTemplateId());
+            ps.setLong(3, coupon.getUserId());
+            ps.setString(4, coupon.getCouponCode());
+            ps.setTimestamp(5, new Timestamp(coupon.getAssignTime().getTime()));
+            ps.setInt(6, coupon.getStatus());
+        });
+        log.debug("Batch Insert Coupon: {}", couponList.size());
+        return couponList.size();
+    }
+
+    /**
+     * 批量更新可用优惠券的状态
+     *
+     * @param ids    优惠券主键
+     * @param status 目标状态
+     * @return 提交的记录数
+     */
+    public int batchUpdateStatus(List<Integer> ids, Integer status) {
+        jdbcTemplate.batchUpdate(UPDATE_STATUS_SQL, ids, ids.size(), (ps, id) -> {
+            ps.setInt(1, status);
+            ps.setInt(2, id);
+            ps.setInt(3, CouponStatus.USABLE.getCode());
+        });
+        log.debug("Batch Update Coupon Status: {}, {}", ids.size(), status);
+        return ids.size();
+    }
+
+    /**
+     * 流式遍历所有领取过优惠券的用户id, 不会把结果集全部加载到内存中
+     *
+     * @param consumer
+     */
+    public void forEachUserId(Consumer<Long> consumer) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(SELECT_USER_ID_SQL,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            // MySQL 驱动只有 fetchSize 是 Integer.MIN_VALUE 时才逐行读取
+            statement.setFetchSize(Integer.MIN_VALUE);
+            return statement;
+        }, (RowCallbackHandler) resultSet -> consumer.accept(resultSet.getLong(1)));
+    }
+}
@@ -2,6 +2,7 @@ package com.imooc.coupon.dao;
 
 import com.imooc.coupon.constant.CouponStatus;
 import com.imooc.coupon.entity.Coupon;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 import java.util.List;
@@ -22,4 +23,16 @@ public interface CouponDao extends JpaRepository<Coupon, Integer> {
      * @return
      */
     List<Coupon> findAllByUserIdAndStatus(Long userId, CouponStatus status);
+
+    /**
+     * 根据 userId 和 状态 按主键分页查询优惠券的记录
+     * where userId = ... and status = ... and id > ... order by id limit ...
+     * @param userId
+     * @param status
+     * @param id 上一页最后一条记录的主键
+     * @param pageable 只使用 size
+     * @return
+     */
+    List<Coupon> findByUserIdAndStatusAndIdGreaterThanOrderByIdAsc(Long userId, CouponStatus status,
+                                                                  Integer id, Pageable pageable);
 }
@@ -0,0 +1,76 @@
+package com.imooc.coupon.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * coupon_id_sequence 表的读写
+ * 主键段在数据库中分配, 数据库中的序列不会因为 redis 数据丢失而回退
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:45
+ */
+@Slf4j
+@Repository
+public class CouponIdSequenceDao {
+
+    private static final String SEQUENCE_NAME = "coupon";
+
+    /**
+     * LAST_INSERT_ID(expr) 在同一个连接中记住更新后的值, 不需要再加锁查询
+     */
+    private static final String INCREMENT_SQL =
+            "UPDATE coupon_id_sequence SET next_id = LAST_INSERT_ID(next_id + ?) WHERE name = ?";
+
+    private static final String LAST_INSERT_ID_SQL = "SELECT LAST_INSERT_ID()";
+
+    private static final String INIT_SQL = "INSERT IGNORE INTO coupon_id_sequence (name, next_id) " +
+            "SELECT ?, GREATEST(IFNULL(MAX(id), 0), ?) FROM coupon";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public CouponIdSequenceDao(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 申请一段主键
+     *
+     * @param size 主键个数
+     * @return 这一段的最后一个主键; 序列不存在时返回 null
+     */
+    public Long increment(int size) {
+        // 更新和读取 LAST_INSERT_ID 必须在同一个连接上
+        return jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try (PreparedStatement update = connection.prepareStatement(INCREMENT_SQL)) {
+                update.setLong(1, size);
+                update.setString(2, SEQUENCE_NAME);
+                if (update.executeUpdate() == 0) {
+                    return null;
+                }
+            }
+            try (PreparedStatement select = connection.prepareStatement(LAST_INSERT_ID_SQL);
+                 ResultSet resultSet = select.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        });
+    }
+
+    /**
+     * 序列不存在时初始化, 从 coupon 表的最大主键和 floor 中较大的一个开始
+     *
+     * @param floor 已经分配过的主键上限, 例如之前 redis 序列的值
+     */
+    public void initIfAbsent(long floor) {
+        int inserted = jdbcTemplate.update(INIT_SQL, SEQUENCE_NAME, floor);
+        log.info("Init Coupon Id Sequence: {}, {}", floor, inserted);
+    }
+}
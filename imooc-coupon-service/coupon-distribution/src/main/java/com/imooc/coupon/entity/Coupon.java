@@ -1,5 +1,6 @@
 package com.imooc.coupon.entity;
 
+import com.alibaba.fastjson.annotation.JSONField;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.imooc.coupon.constant.CouponStatus;
 import com.imooc.coupon.converter.CouponStatusConverter;
@@ -8,11 +9,13 @@ import com.imooc.coupon.vo.CouponTemplateSDK;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.domain.Persistable;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 import javax.persistence.*;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * 优惠券（用户领取的优惠券记录）实体表
@@ -27,12 +30,11 @@ import java.util.Date;
 @EntityListeners(AuditingEntityListener.class)  // jpa审计功能，对列属性实现自动填充
 @Table(name = "coupon")
 @JsonSerialize(using = CouponSerialize.class)
-public class Coupon {
+public class Coupon implements Persistable<Integer> {
     /**
-     * 自增主键
+     * 主键, 由 CouponIdGenerator 分配
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "id", nullable = false)
     private Integer id;
 
@@ -54,9 +56,8 @@ public class Coupon {
     private String couponCode;
 
     /**
-     * 领取时间
+     * 领取时间, 缓存和数据库中的领取时间需要一致, 创建时直接赋值
      */
-    @CreatedDate
     @Column(name = "assign_time", nullable = false)
     private Date assignTime;
 
@@ -73,6 +74,12 @@ public class Coupon {
     @Transient
     private CouponTemplateSDK templateSDK;
 
+    /**
+     * 是否已经保存到数据库中, 主键是预先分配的, 需要据此判断 save 时是 insert 还是 update
+     */
+    @Transient
+    private transient boolean persisted;
+
     /**
      * 返回一个无效的coupon对象
      * @return
@@ -83,10 +90,59 @@ public class Coupon {
         return coupon;
     }
 
+    /**
+     * 主键是预先分配的, 未保存过的优惠券直接 insert, 不需要先 select
+     * @return
+     */
+    @Override
+    @JSONField(serialize = false)
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markPersisted() {
+        this.persisted = true;
+    }
+
+    /**
+     * 复制优惠券对象, 缓存的优惠券返回给调用方之前复制, 调用方的修改不会影响其他请求
+     * 模版信息是所有优惠券共享的只读对象, 不复制
+     * @return
+     */
+    public Coupon copy() {
+        Coupon coupon = new Coupon();
+        coupon.setId(id);
+        coupon.setTemplateId(templateId);
+        coupon.setUserId(userId);
+        coupon.setCouponCode(couponCode);
+        coupon.setAssignTime(null == assignTime ? null : new Date(assignTime.getTime()));
+        coupon.setStatus(status);
+        coupon.setTemplateSDK(templateSDK);
+        coupon.setPersisted(persisted);
+        return coupon;
+    }
+
+    /**
+     * 复制优惠券列表
+     * @param coupons
+     * @return
+     */
+    public static List<Coupon> copyAll(List<Coupon> coupons) {
+        if (null == coupons) {
+            return null;
+        }
+        List<Coupon> copies = new ArrayList<>(coupons.size());
+        coupons.forEach(coupon -> copies.add(coupon.copy()));
+        return copies;
+    }
+
     public Coupon(Integer templateId, Long userId, String couponCode, CouponStatus status) {
         this.templateId = templateId;
         this.userId = userId;
         this.couponCode = couponCode;
+        this.assignTime = new Date();
         this.status = status;
     }
 }
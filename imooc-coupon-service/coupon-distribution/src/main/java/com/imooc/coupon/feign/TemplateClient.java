@@ -3,6 +3,7 @@ package com.imooc.coupon.feign;
 import com.imooc.coupon.feign.hystrix.TemplateClientHystrix;
 import com.imooc.coupon.vo.CommonResponse;
 import com.imooc.coupon.vo.CouponTemplateSDK;
+import com.imooc.coupon.vo.TemplateChanges;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -36,4 +37,13 @@ public interface TemplateClient {
     @RequestMapping(value = "/coupon-template/template/sdk/infos", method = RequestMethod.GET)
     CommonResponse<Map<Integer, CouponTemplateSDK>> findIds2SDK(@RequestParam("ids") Collection<Integer> ids);
 
+    /**
+     * 查询某个版本之后变化的模版
+     *
+     * @param version 上一次同步到的版本号, 第一次同步为 -1
+     * @return
+     */
+    @RequestMapping(value = "/coupon-template/template/sdk/changes", method = RequestMethod.GET)
+    CommonResponse<TemplateChanges> findTemplateChanges(@RequestParam("version") Long version);
+
 }
@@ -3,6 +3,7 @@ package com.imooc.coupon.feign.hystrix;
 import com.imooc.coupon.feign.TemplateClient;
 import com.imooc.coupon.vo.CommonResponse;
 import com.imooc.coupon.vo.CouponTemplateSDK;
+import com.imooc.coupon.vo.TemplateChanges;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
@@ -47,4 +48,20 @@ public class TemplateClientHystrix implements TemplateClient {
                 new HashMap<>()
         );
     }
+
+    /**
+     * 查询某个版本之后变化的模版
+     *
+     * @param version 上一次同步到的版本号
+     * @return
+     */
+    @Override
+    public CommonResponse<TemplateChanges> findTemplateChanges(Long version) {
+        log.error("[eureka-client-coupon-template] findTemplateChanges request error");
+        return new CommonResponse<>(
+                -1,
+                "[eureka-client-coupon-template] findTemplateChanges request error",
+                null
+        );
+    }
 }
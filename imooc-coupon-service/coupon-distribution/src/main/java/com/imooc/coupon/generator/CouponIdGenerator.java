@@ -0,0 +1,94 @@
+package com.imooc.coupon.generator;
+
+import com.imooc.coupon.constant.Constant;
+import com.imooc.coupon.dao.CouponIdSequenceDao;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * 优惠券主键生成器
+ * 主键不再由数据库自增生成, 每个节点每次从数据库的序列表中申请一段主键在本地分配,
+ * 领取优惠券时在写数据库之前就能确定主键
+ * 序列保存在数据库中, 不会因为 redis 数据丢失而回退, 也不依赖异步写入的优惠券已经落库
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:00
+ */
+@Slf4j
+@Component
+public class CouponIdGenerator {
+
+    /**
+     * 每次申请的主键个数
+     */
+    private static final int STEP = 1000;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final CouponIdSequenceDao couponIdSequenceDao;
+
+    /**
+     * 下一个可以分配的主键
+     */
+    private long next = 0;
+
+    /**
+     * 当前申请到的主键上限(不包含)
+     */
+    private long limit = 0;
+
+    @Autowired
+    public CouponIdGenerator(StringRedisTemplate redisTemplate, CouponIdSequenceDao couponIdSequenceDao) {
+        this.redisTemplate = redisTemplate;
+        this.couponIdSequenceDao = couponIdSequenceDao;
+    }
+
+    /**
+     * 分配一个优惠券主键
+     *
+     * @return
+     */
+    public synchronized Integer nextId() {
+        if (next >= limit) {
+            allocate(STEP);
+        }
+        return Math.toIntExact(next++);
+    }
+
+    /**
+     * 直接申请一段连续的主键, 用于批量分发
+     *
+     * @param size 主键个数
+     * @return 第一个主键
+     */
+    public synchronized Integer nextIds(int size) {
+        long localNext = next;
+        long localLimit = limit;
+        allocate(size);
+        int first = Math.toIntExact(next);
+        // 恢复本地正在使用的一段主键
+        next = localNext;
+        limit = localLimit;
+        return first;
+    }
+
+    /**
+     * 从数据库的序列中申请一段主键
+     *
+     * @param size
+     */
+    private void allocate(int size) {
+        Long end = couponIdSequenceDao.increment(size);
+        if (null == end) {
+            // 序列不存在时初始化, 之前使用 redis 序列分配的主键可能还没有写入数据库, 也不能重复
+            String redisSeq = redisTemplate.opsForValue().get(Constant.RedisPrefix.COUPON_ID_SEQ);
+            couponIdSequenceDao.initIfAbsent(null == redisSeq ? 0 : Long.parseLong(redisSeq));
+            end = couponIdSequenceDao.increment(size);
+        }
+        limit = end + 1;
+        next = end - size + 1;
+        log.info("Allocate Coupon Id: [{}, {})", next, limit);
+    }
+}
@@ -0,0 +1,155 @@
+package com.imooc.coupon.limiter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.RateLimiter;
+import com.imooc.coupon.exception.CouponException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按优惠券模版排队领取
+ * 每个模版有一个有界的等待队列和固定的放行速率, 热门模版的突发流量在这里排队,
+ * 以稳定的速率进入 redis 和数据库; 队列满了或者排队超时的请求直接拒绝
+ * 网关的全局限流对所有模版一视同仁, 单个热门模版仍然会把后端打满
+ * 只为校验过的模版创建排队通道, 通道个数有上限, 长时间没有请求的通道被淘汰; 指标不区分模版, 避免指标个数随模版增长
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:05
+ */
+@Slf4j
+@Component
+public class TemplateAdmission {
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 所有通道中正在排队的请求数
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private Timer waitTimer;
+
+    private Counter queueFull;
+
+    private Counter timeout;
+
+    /**
+     * 模版id -> 模版的排队通道
+     */
+    private Cache<Integer, Lane> lanes;
+
+    @Value("${coupon.admission.enabled:false}")
+    private boolean enabled;
+
+    @Value("${coupon.admission.queue-capacity:200}")
+    private int queueCapacity;
+
+    @Value("${coupon.admission.permits-per-second:500}")
+    private double permitsPerSecond;
+
+    @Value("${coupon.admission.max-wait-millis:1000}")
+    private long maxWaitMillis;
+
+    /**
+     * 最多的排队通道个数
+     */
+    @Value("${coupon.admission.max-lanes:1000}")
+    private long maxLanes;
+
+    /**
+     * 通道多长时间没有请求之后淘汰
+     */
+    @Value("${coupon.admission.lane-idle-seconds:600}")
+    private long laneIdleSeconds;
+
+    @Autowired
+    public TemplateAdmission(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        lanes = CacheBuilder.newBuilder()
+                .maximumSize(maxLanes)
+                .expireAfterAccess(laneIdleSeconds, TimeUnit.SECONDS)
+                .build();
+        Gauge.builder("coupon.admission.queue.depth", queued, AtomicInteger::get).register(meterRegistry);
+        waitTimer = Timer.builder("coupon.admission.wait").register(meterRegistry);
+        queueFull = Counter.builder("coupon.admission.rejected").tag("reason", "queue_full").register(meterRegistry);
+        timeout = Counter.builder("coupon.admission.rejected").tag("reason", "timeout").register(meterRegistry);
+    }
+
+    /**
+     * 排队等待领取模版, 返回时表示已经放行
+     * 调用方需要先校验模版存在并且可以领取
+     *
+     * @param templateId 优惠券模版主键
+     * @throws CouponException 队列已满或者排队超时
+     */
+    public void admit(Integer templateId) throws CouponException {
+        if (!enabled) {
+            return;
+        }
+
+        Lane lane;
+        try {
+            lane = lanes.get(templateId, () -> new Lane(new Semaphore(queueCapacity),
+                    RateLimiter.create(permitsPerSecond)));
+        } catch (ExecutionException ex) {
+            throw new CouponException("Create Template Admission Lane Error!");
+        }
+        if (!lane.slots.tryAcquire()) {
+            queueFull.increment();
+            log.debug("Template Admission Queue Full: {}", templateId);
+            throw new CouponException("Too Many Requests For Template!");
+        }
+
+        queued.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            if (!lane.rateLimiter.tryAcquire(1, maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                timeout.increment();
+                log.debug("Template Admission Timeout: {}", templateId);
+                throw new CouponException("Too Many Requests For Template!");
+            }
+        } finally {
+            queued.decrementAndGet();
+            lane.slots.release();
+        }
+        waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 一个模版的排队通道
+     */
+    private static class Lane {
+
+        /**
+         * 排队的位置, 获取不到时说明队列已满
+         */
+        private final Semaphore slots;
+
+        /**
+         * 放行速率
+         */
+        private final RateLimiter rateLimiter;
+
+        Lane(Semaphore slots, RateLimiter rateLimiter) {
+            this.slots = slots;
+            this.rateLimiter = rateLimiter;
+        }
+    }
+}
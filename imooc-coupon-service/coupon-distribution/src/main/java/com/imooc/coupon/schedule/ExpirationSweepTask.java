@@ -0,0 +1,86 @@
+package com.imooc.coupon.schedule;
+
+import com.alibaba.fastjson.JSON;
+import com.imooc.coupon.constant.Constant;
+import com.imooc.coupon.constant.CouponStatus;
+import com.imooc.coupon.service.IRedisService;
+import com.imooc.coupon.vo.CouponKafkaMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 定时把到期的可用优惠券移动到已过期
+ * 根据所有用户最早过期时间的索引找到有到期优惠券的用户, 用户的读请求不再处理过期的优惠券
+ * 多个节点同时执行时, 同一张优惠券只会被一个节点移动
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:20
+ */
+@Slf4j
+@Component
+public class ExpirationSweepTask {
+
+    private final IRedisService redisService;
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+
+    @Value("${coupon.expiration-index.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 每次最多处理的用户个数
+     */
+    @Value("${coupon.expiration-index.sweep-users:500}")
+    private int sweepUsers;
+
+    /**
+     * 每个用户每次最多处理的优惠券个数
+     */
+    @Value("${coupon.expiration-index.sweep-coupons:1000}")
+    private int sweepCoupons;
+
+    @Autowired
+    public ExpirationSweepTask(IRedisService redisService, KafkaTemplate<String, String> kafkaTemplate) {
+        this.redisService = redisService;
+        this.kafkaTemplate = kafkaTemplate;
+    }
+
+    /**
+     * 移动到期的优惠券, 并发送 kafka 消息更新数据库
+     */
+    @Scheduled(fixedDelayString = "${coupon.expiration-index.sweep-millis:10000}")
+    public void sweepExpiredCoupons() {
+        if (!enabled) {
+            return;
+        }
+
+        List<Long> userIds = redisService.findUsersWithExpiredCoupons(sweepUsers);
+        if (CollectionUtils.isEmpty(userIds)) {
+            return;
+        }
+
+        int expiredCount = 0;
+        for (Long userId : userIds) {
+            try {
+                List<Integer> expiredIds = redisService.expireCoupons(userId, sweepCoupons);
+                if (CollectionUtils.isEmpty(expiredIds)) {
+                    continue;
+                }
+                // 与新领取优惠券的写入使用同一个 topic 和 key, 保证在写入之后更新
+                kafkaTemplate.send(Constant.INSERT_TOPIC, userId.toString(), JSON.toJSONString(
+                        new CouponKafkaMessage(CouponStatus.EXPIRED.getCode(), expiredIds)));
+                expiredCount += expiredIds.size();
+            } catch (Exception ex) {
+                log.error("Sweep Expired Coupons Error: {}, {}", userId, ex.getMessage());
+            }
+        }
+        log.info("Sweep Expired Coupons: {} Users, {} Coupons", userIds.size(), expiredCount);
+    }
+}
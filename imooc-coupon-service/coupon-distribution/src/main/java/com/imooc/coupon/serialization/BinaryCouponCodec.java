@@ -0,0 +1,77 @@
+package com.imooc.coupon.serialization;
+
+import com.imooc.coupon.constant.CouponStatus;
+import com.imooc.coupon.entity.Coupon;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * 紧凑的二进制格式, 大端字节序:
+ * <pre>
+ * magic(1) version(1) id(4) templateId(4) assignTime(8) status(1) couponCode(剩余的字节, UTF-8)
+ * </pre>
+ * 优惠券码放在最后, 长度由 value 的长度决定, 领取优惠券的 lua 脚本可以直接把优惠券码拼接在末尾;
+ * lua 脚本中用 struct.unpack('>i4i4', value, 3) 读取 id 和 templateId
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:10
+ */
+public class BinaryCouponCodec implements CouponCodec {
+
+    /**
+     * 第一个字节, 与 json 格式的 '{' 区分
+     */
+    public static final byte MAGIC = (byte) 0xCB;
+
+    /**
+     * 当前的格式版本
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * 优惠券码之前的固定长度
+     */
+    private static final int HEADER_SIZE = 1 + 1 + 4 + 4 + 8 + 1;
+
+    @Override
+    public byte[] encode(Coupon coupon) {
+        byte[] code = null == coupon.getCouponCode()
+                ? new byte[0] : coupon.getCouponCode().getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + code.length);
+        buffer.put(MAGIC);
+        buffer.put(VERSION);
+        buffer.putInt(null == coupon.getId() ? 0 : coupon.getId());
+        buffer.putInt(null == coupon.getTemplateId() ? 0 : coupon.getTemplateId());
+        buffer.putLong(null == coupon.getAssignTime() ? -1 : coupon.getAssignTime().getTime());
+        buffer.put(null == coupon.getStatus() ? 0 : coupon.getStatus().getCode().byteValue());
+        buffer.put(code);
+        return buffer.array();
+    }
+
+    @Override
+    public Coupon decode(byte[] value) {
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        if (buffer.get() != MAGIC) {
+            throw new IllegalArgumentException("Not A Binary Coupon Value");
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported Coupon Value Version: " + version);
+        }
+
+        Coupon coupon = new Coupon();
+        coupon.setId(buffer.getInt());
+        coupon.setTemplateId(buffer.getInt());
+        long assignTime = buffer.getLong();
+        coupon.setAssignTime(assignTime < 0 ? null : new Date(assignTime));
+        byte status = buffer.get();
+        coupon.setStatus(status == 0 ? null : CouponStatus.of((int) status));
+        if (buffer.hasRemaining()) {
+            coupon.setCouponCode(new String(value, buffer.position(), buffer.remaining(), StandardCharsets.UTF_8));
+        }
+        return coupon;
+    }
+}
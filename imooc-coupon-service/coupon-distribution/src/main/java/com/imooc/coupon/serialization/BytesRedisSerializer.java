@@ -0,0 +1,31 @@
+package com.imooc.coupon.serialization;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 直接读写字节的 redis 序列化器, 用于二进制的缓存 value
+ * 写入时字节数组原样写入, 其他对象按字符串(UTF-8)写入, 方便 lua 脚本的参数中混合使用
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:10
+ */
+public class BytesRedisSerializer implements RedisSerializer<Object> {
+
+    @Override
+    public byte[] serialize(Object value) {
+        if (null == value) {
+            return null;
+        }
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        return value.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) {
+        return bytes;
+    }
+}
@@ -0,0 +1,37 @@
+package com.imooc.coupon.serialization;
+
+import com.imooc.coupon.entity.Coupon;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 用户优惠券缓存使用的编解码器
+ * 按配置的格式写入; 读取时根据第一个字节识别格式, 切换格式期间新旧两种 value 都能读取
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:10
+ */
+@Component
+public class CouponCacheCodec implements CouponCodec {
+
+    private final CouponCodec jsonCodec = new JsonCouponCodec();
+
+    private final CouponCodec binaryCodec = new BinaryCouponCodec();
+
+    /**
+     * 写入缓存的格式: json, binary
+     */
+    @Value("${coupon.cache.codec:json}")
+    private String codec;
+
+    @Override
+    public byte[] encode(Coupon coupon) {
+        return "binary".equals(codec) ? binaryCodec.encode(coupon) : jsonCodec.encode(coupon);
+    }
+
+    @Override
+    public Coupon decode(byte[] value) {
+        return value.length > 0 && value[0] == BinaryCouponCodec.MAGIC
+                ? binaryCodec.decode(value) : jsonCodec.decode(value);
+    }
+}
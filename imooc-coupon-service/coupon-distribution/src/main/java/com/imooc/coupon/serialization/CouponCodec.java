@@ -0,0 +1,30 @@
+package com.imooc.coupon.serialization;
+
+import com.imooc.coupon.entity.Coupon;
+
+/**
+ * 用户优惠券缓存 value 的编解码器
+ * 缓存中只保存优惠券自身的字段: id, templateId, couponCode, assignTime, status
+ * 用户id在 key 中, 模版信息读取时从模版缓存中填充
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:10
+ */
+public interface CouponCodec {
+
+    /**
+     * 编码优惠券
+     *
+     * @param coupon
+     * @return
+     */
+    byte[] encode(Coupon coupon);
+
+    /**
+     * 解码优惠券
+     *
+     * @param value
+     * @return
+     */
+    Coupon decode(byte[] value);
+}
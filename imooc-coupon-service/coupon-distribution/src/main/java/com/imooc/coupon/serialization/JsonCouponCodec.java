@@ -0,0 +1,32 @@
+package com.imooc.coupon.serialization;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.SimplePropertyPreFilter;
+import com.imooc.coupon.entity.Coupon;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * fastjson 文本格式, 也是旧版本缓存的格式, 第一个字节总是 '{'
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:10
+ */
+public class JsonCouponCodec implements CouponCodec {
+
+    /**
+     * 只序列化优惠券自身的字段
+     */
+    private static final SimplePropertyPreFilter CACHE_FIELDS = new SimplePropertyPreFilter(
+            Coupon.class, "id", "templateId", "couponCode", "assignTime", "status");
+
+    @Override
+    public byte[] encode(Coupon coupon) {
+        return JSON.toJSONString(coupon, CACHE_FIELDS).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Coupon decode(byte[] value) {
+        return JSON.parseObject(value, Coupon.class);
+    }
+}
@@ -0,0 +1,34 @@
+package com.imooc.coupon.service;
+
+import com.imooc.coupon.exception.CouponException;
+import com.imooc.coupon.vo.DistributeJobProgress;
+import com.imooc.coupon.vo.DistributeJobRequest;
+
+/**
+ * 批量分发优惠券服务接口定义
+ * 用于分发目标为多用户的优惠券模版, 一次给大量的用户发放优惠券
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:05
+ */
+public interface IDistributeService {
+
+    /**
+     * 提交批量分发任务, 任务在后台执行
+     * 使用已有的任务id提交时从上次提交的进度继续执行
+     *
+     * @param request
+     * @return 任务id
+     * @throws CouponException
+     */
+    String submit(DistributeJobRequest request) throws CouponException;
+
+    /**
+     * 查询批量分发任务的进度
+     *
+     * @param jobId 任务id
+     * @return
+     * @throws CouponException
+     */
+    DistributeJobProgress progress(String jobId) throws CouponException;
+}
@@ -2,6 +2,8 @@ package com.imooc.coupon.service;
 
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 
+import java.util.List;
+
 /**
  * kafka 相关的服务接口定义
  *
@@ -15,4 +17,11 @@ public interface IKafkaService {
      * @param record
      */
     void cousumerCouponKafkaMessage(ConsumerRecord<?, ?> record);
+
+    /**
+     * 批量消费用户优惠券变化的 kafka 消息, 按顺序写入数据库
+     *
+     * @param records
+     */
+    void consumeCouponInsertMessages(List<ConsumerRecord<?, ?>> records);
 }
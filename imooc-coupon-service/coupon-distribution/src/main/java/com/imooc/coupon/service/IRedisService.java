@@ -1,9 +1,13 @@
 package com.imooc.coupon.service;
 
+import com.imooc.coupon.constant.AcquireStatus;
 import com.imooc.coupon.entity.Coupon;
 import com.imooc.coupon.exception.CouponException;
+import com.imooc.coupon.vo.CouponPage;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * redis 相关操作服务接口定义
@@ -21,8 +25,9 @@ public interface IRedisService {
      * @param userId 用户id
      * @param status 优惠券状态
      * @return
+     * @throws CouponException 无法获取优惠券的模版信息
      */
-    List<Coupon> getCachedCoupons(Long userId, Integer status);
+    List<Coupon> getCachedCoupons(Long userId, Integer status) throws CouponException;
 
     /**
      * 保存空的优惠券列表到缓存中
@@ -51,4 +56,75 @@ public interface IRedisService {
      */
     Integer addCouponToCache(Long userId, List<Coupon> couponList, Integer status) throws CouponException;
 
+    /**
+     * 领取优惠券: 校验用户的领取限制并预占名额、获取优惠券码、写入用户可用优惠券缓存
+     * 成功时会填充 coupon 的优惠券码
+     *
+     * @param coupon 需要领取的优惠券, 主键、模版、用户、领取时间、模版信息已经填充
+     * @param limitation 模版的领取限制
+     * @return {@link AcquireStatus}
+     */
+    AcquireStatus acquireCouponToCache(Coupon coupon, Integer limitation);
+
+    /**
+     * 撤销领取: 领取的优惠券写入数据库失败时删除缓存、归还预占的名额, 并把优惠券码放回优惠券码列表
+     *
+     * @param coupon 领取成功的优惠券
+     * @param cached 优惠券是否已经写入缓存, 即领取结果是否是 {@link AcquireStatus#SUCCESS}
+     */
+    void rollbackAcquire(Coupon coupon, boolean cached);
+
+    /**
+     * 批量将新领取的优惠券加入到各自用户的可用优惠券缓存中, 只写入已经存在的缓存
+     *
+     * @param couponList 优惠券, 可以属于不同的用户
+     * @return 写入缓存的个数
+     */
+    Integer addCouponsToCacheIfPresent(List<Coupon> couponList);
+
+    /**
+     * 查询用户已经到期但还在可用优惠券缓存中的优惠券
+     *
+     * @param userId 用户id
+     * @return 到期的优惠券id; 没有开启过期时间索引时返回 null
+     */
+    Set<Integer> findExpiredCouponIds(Long userId);
+
+    /**
+     * 查询有到期优惠券的用户
+     *
+     * @param count 最多返回的用户个数
+     * @return 用户id
+     */
+    List<Long> findUsersWithExpiredCoupons(Integer count);
+
+    /**
+     * 把用户到期的可用优惠券移动到已过期, 并从过期时间索引中删除
+     *
+     * @param userId 用户id
+     * @param count 最多处理的优惠券个数
+     * @return 到期的优惠券id, 缓存中没有的也会返回, 需要更新数据库
+     */
+    List<Integer> expireCoupons(Long userId, Integer count);
+
+    /**
+     * 用游标分批读取用户优惠券缓存
+     *
+     * @param userId 用户id
+     * @param status 优惠券状态
+     * @param cursor HSCAN 游标, 从 0 开始
+     * @param count 每次扫描的 field 个数
+     * @return 缓存不存在时返回 null; 游标为 null 时表示已经扫描完
+     * @throws CouponException 无法获取优惠券的模版信息
+     */
+    CouponPage scanCachedCoupons(Long userId, Integer status, String cursor, Integer count) throws CouponException;
+
+    /**
+     * 查询用户每个模版的可用优惠券个数
+     *
+     * @param userId 用户id
+     * @return 模版id -> 可用优惠券个数; 用户可用优惠券缓存不存在时返回 null
+     */
+    Map<Integer, Integer> getTemplateCounts(Long userId);
+
 }
@@ -3,6 +3,7 @@ package com.imooc.coupon.service;
 import com.imooc.coupon.entity.Coupon;
 import com.imooc.coupon.exception.CouponException;
 import com.imooc.coupon.vo.AcquireTemplateRequest;
+import com.imooc.coupon.vo.CouponPage;
 import com.imooc.coupon.vo.CouponTemplateSDK;
 import com.imooc.coupon.vo.SettlementInfo;
 
@@ -30,6 +31,20 @@ public interface IUserService {
      */
     List<Coupon> findCouponsByStatus(Long userId, Integer status) throws CouponException;
 
+    /**
+     * 根据用户ID和状态分页查询优惠券记录, 每次调用的内存和耗时与优惠券总数无关
+     * 同一张优惠券可能出现在多页中, 调用方需要按主键去重
+     *
+     * @param userId
+     * @param status
+     * @param cursor 上一页返回的游标, 第一页为 null
+     * @param size 每页的个数
+     * @return
+     * @throws CouponException
+     */
+    CouponPage findCouponsByStatus(Long userId, Integer status, String cursor, Integer size)
+            throws CouponException;
+
     /**
      * 根据用户 id 查找当前可以领取的优惠券模版
      *
@@ -0,0 +1,619 @@
+package com.imooc.coupon.service.impl;
+
+import com.imooc.coupon.cache.SoldOutRegistry;
+import com.imooc.coupon.constant.Constant;
+import com.imooc.coupon.constant.CouponStatus;
+import com.imooc.coupon.constant.DistributeTarget;
+import com.imooc.coupon.dao.CouponBatchDao;
+import com.imooc.coupon.entity.Coupon;
+import com.imooc.coupon.exception.CouponException;
+import com.imooc.coupon.feign.TemplateClient;
+import com.imooc.coupon.generator.CouponIdGenerator;
+import com.imooc.coupon.service.IDistributeService;
+import com.imooc.coupon.service.IRedisService;
+import com.imooc.coupon.vo.CouponInsertMessage;
+import com.imooc.coupon.vo.CouponTemplateSDK;
+import com.imooc.coupon.vo.DistributeJobProgress;
+import com.imooc.coupon.vo.DistributeJobRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量分发优惠券服务实现
+ * 按行流式读取导入目录下的用户id文件, 每个批次:
+ * 1、申请一段连续的主键记录在任务的当前批次中, 再从优惠券码列表中把优惠券码原子地移动到当前批次的暂存列表
+ * 2、批量写入数据库, INSERT IGNORE 保证重复执行当前批次是幂等的
+ * 3、批量写入已经存在的用户可用优惠券缓存
+ * 4、在一个事务中提交任务进度和已经分发的用户, 并清除当前批次
+ * 任务中断后使用同一个任务id重新提交, 从已经提交的进度继续, 并复用当前批次的主键和暂存的优惠券码
+ *
+ * 批量分发是运营直接发放, 不校验模版的领取限制(limitation);
+ * 同一个任务中每个用户最多分发一张, 用户id文件中重复的用户跳过
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:05
+ */
+@Slf4j
+@Service
+public class DistributeServiceImpl implements IDistributeService {
+
+    private static final String STATUS_RUNNING = "RUNNING";
+    private static final String STATUS_DONE = "DONE";
+    private static final String STATUS_SOLD_OUT = "SOLD_OUT";
+    private static final String STATUS_FAILED = "FAILED";
+
+    /**
+     * 任务执行权的过期时间(秒), 每个批次续期一次
+     */
+    private static final long LOCK_SECONDS = 60;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final IRedisService redisService;
+
+    private final CouponBatchDao couponBatchDao;
+
+    private final CouponIdGenerator couponIdGenerator;
+
+    /**
+     * 模版微服务客户端
+     */
+    private final TemplateClient templateClient;
+
+    /**
+     * 优惠券模版售罄状态
+     */
+    private final SoldOutRegistry soldOutRegistry;
+
+    /**
+     * 从一个优惠券码列表中把多个优惠券码移动到当前批次暂存列表的脚本
+     */
+    private final DefaultRedisScript<List> moveCodesScript;
+
+    /**
+     * 续期任务执行权的脚本, 只续期当前节点持有的执行权
+     */
+    private final DefaultRedisScript<Long> renewLockScript;
+
+    /**
+     * 释放任务执行权的脚本, 只删除当前节点持有的执行权
+     */
+    private final DefaultRedisScript<Long> releaseLockScript;
+
+    /**
+     * 执行分发任务的线程池, 同时执行的任务个数有限
+     */
+    private final ThreadPoolExecutor jobExecutor = new ThreadPoolExecutor(
+            2, 2, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(16),
+            runnable -> new Thread(runnable, "Imooc_CouponDistribute")
+    );
+
+    /**
+     * 当前节点的标识, 作为任务执行权的值
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /**
+     * 每个批次分发的用户个数
+     */
+    @Value("${coupon.distribute.batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * 用户id文件的导入目录, 任务只能读取这个目录下的文件
+     */
+    @Value("${coupon.distribute.import-dir:/data/imooc-coupon/distribute}")
+    private String importDir;
+
+    @Autowired
+    public DistributeServiceImpl(StringRedisTemplate redisTemplate, IRedisService redisService,
+                                 CouponBatchDao couponBatchDao, CouponIdGenerator couponIdGenerator,
+                                 TemplateClient templateClient, SoldOutRegistry soldOutRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.redisService = redisService;
+        this.couponBatchDao = couponBatchDao;
+        this.couponIdGenerator = couponIdGenerator;
+        this.templateClient = templateClient;
+        this.soldOutRegistry = soldOutRegistry;
+        this.moveCodesScript = new DefaultRedisScript<>();
+        this.moveCodesScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/coupon_code_move.lua")));
+        this.moveCodesScript.setResultType(List.class);
+        this.renewLockScript = new DefaultRedisScript<>();
+        this.renewLockScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/compare_and_expire.lua")));
+        this.renewLockScript.setResultType(Long.class);
+        this.releaseLockScript = new DefaultRedisScript<>();
+        this.releaseLockScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/compare_and_delete.lua")));
+        this.releaseLockScript.setResultType(Long.class);
+    }
+
+    /**
+     * 提交批量分发任务, 任务在后台执行
+     *
+     * @param request
+     * @return 任务id
+     * @throws CouponException
+     */
+    @Override
+    public String submit(DistributeJobRequest request) throws CouponException {
+        if (!request.validate()) {
+            throw new CouponException("Distribute Job Request Is Not Valid!");
+        }
+        if (null == resolveUserFile(request.getUserFile())) {
+            throw new CouponException("Distribute User File Is Not Valid!");
+        }
+
+        CouponTemplateSDK template = templateClient.findIds2SDK(
+                Collections.singletonList(request.getTemplateId())
+        ).getData().get(request.getTemplateId());
+        if (null == template) {
+            log.error("Cannot Acquire Template From TemplateClient: {}", request.getTemplateId());
+            throw new CouponException("Cannot Acquire Template From TemplateClient");
+        }
+        if (DistributeTarget.of(template.getTarget()) != DistributeTarget.MULTI) {
+            throw new CouponException("Template Distribute Target Is Not MULTI!");
+        }
+
+        String jobId = StringUtils.isEmpty(request.getJobId())
+                ? UUID.randomUUID().toString().replace("-", "") : request.getJobId();
+        String jobKey = jobKey(Constant.RedisPrefix.DISTRIBUTE_JOB, jobId);
+
+        String lockKey = jobKey(Constant.RedisPrefix.DISTRIBUTE_JOB_LOCK, jobId);
+        Boolean locked = redisTemplate.opsForValue().setIfAbsent(lockKey, nodeId, LOCK_SECONDS, TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(locked)) {
+            throw new CouponException("Distribute Job Is Running!");
+        }
+
+        Map<String, String> state = new HashMap<>();
+        state.put("templateId", request.getTemplateId().toString());
+        state.put("userFile", request.getUserFile());
+        state.put("offset", "0");
+        state.put("distributed", "0");
+        state.put("status", STATUS_RUNNING);
+        if (!redisTemplate.opsForHash().putIfAbsent(jobKey, "templateId", state.get("templateId"))) {
+            // 已有的任务: 模版和文件必须一致, 已经结束的任务不再执行
+            DistributeJobProgress progress = progress(jobId);
+            if (!request.getTemplateId().equals(progress.getTemplateId())
+                    || !request.getUserFile().equals(progress.getUserFile())) {
+                releaseLock(lockKey);
+                throw new CouponException("Distribute Job Does Not Match Request!");
+            }
+            if (STATUS_DONE.equals(progress.getStatus()) || STATUS_SOLD_OUT.equals(progress.getStatus())) {
+                releaseLock(lockKey);
+                return jobId;
+            }
+            state.remove("offset");
+            state.remove("distributed");
+        }
+        redisTemplate.opsForHash().putAll(jobKey, state);
+        redisTemplate.opsForHash().delete(jobKey, "error");
+
+        try {
+            jobExecutor.execute(() -> runJob(jobId, template));
+        } catch (RuntimeException ex) {
+            releaseLock(lockKey);
+            throw new CouponException("Too Many Distribute Jobs!");
+        }
+        log.info("Submit Distribute Job: {}, {}", jobId, request.getTemplateId());
+        return jobId;
+    }
+
+    /**
+     * 查询批量分发任务的进度
+     *
+     * @param jobId 任务id
+     * @return
+     * @throws CouponException
+     */
+    @Override
+    public DistributeJobProgress progress(String jobId) throws CouponException {
+        Map<Object, Object> state = redisTemplate.opsForHash().entries(jobKey(Constant.RedisPrefix.DISTRIBUTE_JOB, jobId));
+        if (state.isEmpty()) {
+            throw new CouponException("Distribute Job Is Not Exist: " + jobId);
+        }
+        return new DistributeJobProgress(
+                jobId,
+                Integer.valueOf(state.get("templateId").toString()),
+                (String) state.get("userFile"),
+                Long.valueOf(state.getOrDefault("offset", "0").toString()),
+                Long.valueOf(state.getOrDefault("distributed", "0").toString()),
+                (String) state.get("status"),
+                (String) state.get("error")
+        );
+    }
+
+    /**
+     * 执行分发任务, 逐批读取用户id文件, 只在内存中保留一个批次
+     *
+     * @param jobId
+     * @param template
+     */
+    private void runJob(String jobId, CouponTemplateSDK template) {
+        String jobKey = jobKey(Constant.RedisPrefix.DISTRIBUTE_JOB, jobId);
+        String lockKey = jobKey(Constant.RedisPrefix.DISTRIBUTE_JOB_LOCK, jobId);
+
+        try {
+            DistributeJobProgress progress = progress(jobId);
+            Path userFile = resolveUserFile(progress.getUserFile());
+            if (null == userFile) {
+                throw new CouponException("Distribute User File Is Not Valid!");
+            }
+            try (BufferedReader reader = Files.newBufferedReader(userFile, StandardCharsets.UTF_8)) {
+                for (long i = 0; i < progress.getOffset(); i++) {
+                    if (null == reader.readLine()) {
+                        break;
+                    }
+                }
+                // 已经读取的行数, 用于定位无效的用户id
+                long readLines = progress.getOffset();
+
+                String status = STATUS_DONE;
+                while (true) {
+                    // lines[i] 是读到第 i 个用户id时消费的行数, 用于部分提交
+                    List<Long> userIds = new ArrayList<>(batchSize);
+                    List<Integer> lines = new ArrayList<>(batchSize);
+                    int lineCount = readBatch(reader, readLines, userIds, lines);
+                    if (lineCount == 0) {
+                        break;
+                    }
+                    readLines += lineCount;
+                    renewLock(lockKey);
+                    skipDistributedUsers(jobId, userIds, lines);
+
+                    int distributed = userIds.isEmpty() ? 0 : distributeBatch(jobId, template, userIds);
+                    int committedLines = distributed == userIds.size()
+                            ? lineCount : lines.get(distributed) - 1;
+                    commitBatch(jobId, template.getId(), committedLines, userIds.subList(0, distributed));
+
+                    if (distributed < userIds.size()) {
+                        soldOutRegistry.markSoldOut(template.getId());
+                        status = STATUS_SOLD_OUT;
+                        break;
+                    }
+                }
+                redisTemplate.opsForHash().put(jobKey, "status", status);
+                // 结束的任务不会再执行, 不再需要已经分发的用户
+                redisTemplate.delete(jobKey(Constant.RedisPrefix.DISTRIBUTE_JOB_USERS, jobId));
+                log.info("Distribute Job Finished: {}, {}", jobId, status);
+            }
+        } catch (CouponException ex) {
+            // CouponException 的信息由这里生成, 不包含文件内容, 可以返回给调用方
+            log.error("Distribute Job Failed: {}, {}", jobId, ex.getMessage());
+            redisTemplate.opsForHash().put(jobKey, "status", STATUS_FAILED);
+            redisTemplate.opsForHash().put(jobKey, "error", ex.getMessage());
+        } catch (Exception ex) {
+            log.error("Distribute Job Failed: {}", jobId, ex);
+            redisTemplate.opsForHash().put(jobKey, "status", STATUS_FAILED);
+            redisTemplate.opsForHash().put(jobKey, "error", "Distribute Job Failed");
+        } finally {
+            releaseLock(lockKey);
+        }
+    }
+
+    /**
+     * 解析用户id文件, 只接受导入目录下的文件名
+     *
+     * @param userFile 文件名
+     * @return 文件路径, 文件名不合法或者文件不可读时返回 null
+     */
+    private Path resolveUserFile(String userFile) {
+        if (StringUtils.isBlank(userFile) || StringUtils.containsAny(userFile, '/', '\\')) {
+            return null;
+        }
+        Path dir = Paths.get(importDir).toAbsolutePath().normalize();
+        Path file = dir.resolve(userFile).normalize();
+        if (!dir.equals(file.getParent()) || !Files.isRegularFile(file) || !Files.isReadable(file)) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * 读取一个批次的用户id, 空行和批次中重复的用户id跳过
+     *
+     * @param reader
+     * @param readLines 之前已经读取的行数
+     * @param userIds   读到的用户id
+     * @param lines     读到每个用户id时消费的行数
+     * @return 消费的行数
+     * @throws IOException
+     * @throws CouponException 用户id不是数字
+     */
+    private int readBatch(BufferedReader reader, long readLines, List<Long> userIds, List<Integer> lines)
+            throws IOException, CouponException {
+        int lineCount = 0;
+        Set<Long> batchUserIds = new HashSet<>();
+        String line;
+        while (userIds.size() < batchSize && null != (line = reader.readLine())) {
+            lineCount++;
+            if (StringUtils.isNotBlank(line)) {
+                Long userId = parseUserId(line, readLines + lineCount);
+                if (batchUserIds.add(userId)) {
+                    userIds.add(userId);
+                    lines.add(lineCount);
+                }
+            }
+        }
+        return lineCount;
+    }
+
+    /**
+     * 跳过之前的批次已经分发过的用户
+     * 只和已经提交的批次比较, 当前批次中断后恢复时跳过的用户不变, 主键和优惠券码仍然一一对应
+     *
+     * @param jobId
+     * @param userIds 当前批次的用户id, 跳过的用户从中删除
+     * @param lines   读到每个用户id时消费的行数, 和 userIds 一起删除
+     */
+    private void skipDistributedUsers(String jobId, List<Long> userIds, List<Integer> lines) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        String usersKey = jobKey(Constant.RedisPrefix.DISTRIBUTE_JOB_USERS, jobId);
+        List<Object> distributed = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            userIds.forEach(userId -> connection.sIsMember(usersKey.getBytes(), userId.toString().getBytes()));
+            return null;
+        });
+        for (int i = userIds.size() - 1; i >= 0; i--) {
+            if (Boolean.TRUE.equals(distributed.get(i))) {
+                log.info("Skip Distributed User: {}, {}", jobId, userIds.get(i));
+                userIds.remove(i);
+                lines.remove(i);
+            }
+        }
+    }
+
+    /**
+     * 解析一行用户id, 错误信息中只包含行号
+     *
+     * @param line
+     * @param lineNo 行号
+     * @return 用户id
+     * @throws CouponException
+     */
+    private Long parseUserId(String line, long lineNo) throws CouponException {
+        try {
+            Long userId = Long.valueOf(line.trim());
+            if (userId > 0) {
+                return userId;
+            }
+        } catch (NumberFormatException ignore) {
+            // 统一在下面抛出
+        }
+        throw new CouponException("Invalid User Id At Line " + lineNo);
+    }
+
+    /**
+     * 分发一个批次, 优惠券码不足时只分发前面的用户
+     *
+     * @param jobId
+     * @param template
+     * @param userIds
+     * @return 分发的优惠券个数
+     */
+    private int distributeBatch(String jobId, CouponTemplateSDK template, List<Long> userIds) {
+        String jobKey = jobKey(Constant.RedisPrefix.DISTRIBUTE_JOB, jobId);
+
+        // 任务中断后恢复时使用当前批次的主键, 没有时说明上一个批次已经提交, 清除它可能遗留的暂存列表
+        Object batchFirstId = redisTemplate.opsForHash().get(jobKey, "batchFirstId");
+        int firstId;
+        if (null == batchFirstId) {
+            redisTemplate.delete(stagedCodeKeys(jobId, template.getId()));
+            firstId = couponIdGenerator.nextIds(userIds.size());
+            redisTemplate.opsForHash().put(jobKey, "batchFirstId", String.valueOf(firstId));
+        } else {
+            firstId = Integer.parseInt(batchFirstId.toString());
+        }
+
+        // 开始写入数据库之前补齐优惠券码; 开始写入之后暂存列表不再变化, 恢复时用户和优惠券码的对应关系不变
+        List<String> codes = stagedCodes(jobId, template.getId());
+        if (null == redisTemplate.opsForHash().get(jobKey, "batchSealed")) {
+            if (codes.size() < userIds.size()) {
+                takeCodes(jobId, template.getId(), userIds.size() - codes.size());
+                codes = stagedCodes(jobId, template.getId());
+            }
+            redisTemplate.opsForHash().put(jobKey, "batchSealed", "1");
+        }
+        int size = Math.min(userIds.size(), codes.size());
+
+        List<Coupon> couponList = new ArrayList<>(size);
+        for (int i = 0; i != size; i++) {
+            Coupon coupon = new Coupon(template.getId(), userIds.get(i), codes.get(i), CouponStatus.USABLE);
+            coupon.setId(firstId + i);
+            coupon.setTemplateSDK(template);
+            couponList.add(coupon);
+        }
+        if (size > 0) {
+            List<CouponInsertMessage> messages = new ArrayList<>(size);
+            couponList.forEach(coupon -> messages.add(CouponInsertMessage.of(coupon)));
+            couponBatchDao.batchInsert(messages);
+            redisService.addCouponsToCacheIfPresent(couponList);
+        }
+        log.info("Distribute Batch: {}, {}/{}", jobId, size, userIds.size());
+        return size;
+    }
+
+    /**
+     * 从模版的优惠券码列表中把优惠券码移动到当前批次的暂存列表, 每个列表单独移动, redis 集群下脚本不会跨 slot
+     * 从随机的子列表开始依次尝试, 最后兼容未拆分子列表的模版
+     *
+     * @param jobId
+     * @param templateId
+     * @param need 需要的个数
+     */
+    @SuppressWarnings("unchecked")
+    private void takeCodes(String jobId, Integer templateId, int need) {
+        int start = ThreadLocalRandom.current().nextInt(Constant.COUPON_CODE_SHARD_NUM);
+
+        // 序号 COUPON_CODE_SHARD_NUM 表示未拆分之前的列表, 已经发现为空的列表直接跳过
+        for (int i = 0; i <= Constant.COUPON_CODE_SHARD_NUM && need > 0; i++) {
+            int shard = i == Constant.COUPON_CODE_SHARD_NUM ? i : (start + i) % Constant.COUPON_CODE_SHARD_NUM;
+            if (soldOutRegistry.isShardEmpty(templateId, shard)) {
+                continue;
+            }
+            String codeKey = codeKey(templateId, shard);
+            List<String> moved = redisTemplate.execute(moveCodesScript,
+                    Arrays.asList(codeKey, stagedCodeKey(jobId, codeKey)), String.valueOf(need));
+            int size = null == moved ? 0 : moved.size();
+            if (size < need) {
+                soldOutRegistry.markShardEmpty(templateId, shard);
+            }
+            need -= size;
+        }
+    }
+
+    /**
+     * 当前批次暂存的优惠券码, 按列表序号的顺序拼接, 每次读取的顺序相同
+     *
+     * @param jobId
+     * @param templateId
+     * @return
+     */
+    private List<String> stagedCodes(String jobId, Integer templateId) {
+        List<String> codes = new ArrayList<>();
+        for (String stagedKey : stagedCodeKeys(jobId, templateId)) {
+            List<String> staged = redisTemplate.opsForList().range(stagedKey, 0, -1);
+            if (CollectionUtils.isNotEmpty(staged)) {
+                codes.addAll(staged);
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * 在一个事务中提交任务进度和已经分发的用户, 并清除当前批次; 之后删除暂存列表,
+     * 暂存列表和任务不在同一个 slot, 删除之前中断时由下一个批次清除
+     *
+     * @param jobId
+     * @param templateId
+     * @param lines   本批次消费的行数
+     * @param userIds 本批次分发了优惠券的用户
+     */
+    private void commitBatch(String jobId, Integer templateId, long lines, List<Long> userIds) {
+        String jobKey = jobKey(Constant.RedisPrefix.DISTRIBUTE_JOB, jobId);
+        String usersKey = jobKey(Constant.RedisPrefix.DISTRIBUTE_JOB_USERS, jobId);
+        String[] members = userIds.stream().map(String::valueOf).toArray(String[]::new);
+
+        SessionCallback<Object> sessionCallback = new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                operations.multi();
+                operations.opsForHash().increment(jobKey, "offset", lines);
+                operations.opsForHash().increment(jobKey, "distributed", members.length);
+                operations.opsForHash().delete(jobKey, "batchFirstId", "batchSealed");
+                if (members.length > 0) {
+                    operations.opsForSet().add(usersKey, members);
+                }
+                return operations.exec();
+            }
+        };
+        redisTemplate.execute(sessionCallback);
+        redisTemplate.delete(stagedCodeKeys(jobId, templateId));
+    }
+
+    /**
+     * 续期任务执行权
+     *
+     * @param lockKey
+     * @throws CouponException 执行权已经被其他节点获取
+     */
+    private void renewLock(String lockKey) throws CouponException {
+        Long renewed = redisTemplate.execute(renewLockScript, Collections.singletonList(lockKey),
+                nodeId, String.valueOf(LOCK_SECONDS));
+        if (null == renewed || renewed == 0) {
+            throw new CouponException("Distribute Job Lock Lost!");
+        }
+    }
+
+    /**
+     * 释放任务执行权
+     *
+     * @param lockKey
+     */
+    private void releaseLock(String lockKey) {
+        redisTemplate.execute(releaseLockScript, Collections.singletonList(lockKey), nodeId);
+    }
+
+    /**
+     * 任务相关的 key, 任务id作为 hash tag, 同一个任务的 key 在同一个 slot, 可以在一个事务中访问
+     *
+     * @param prefix
+     * @param jobId
+     * @return
+     */
+    private static String jobKey(String prefix, String jobId) {
+        return String.format("%s{%s}", prefix, jobId);
+    }
+
+    /**
+     * 模版的一个优惠券码列表
+     *
+     * @param templateId
+     * @param shard 子列表序号, COUPON_CODE_SHARD_NUM 表示未拆分之前的列表
+     * @return
+     */
+    private static String codeKey(Integer templateId, int shard) {
+        String codeKey = Constant.RedisPrefix.COUPON_TEMPLATE + templateId.toString();
+        return shard == Constant.COUPON_CODE_SHARD_NUM ? codeKey : codeKey + "_" + shard;
+    }
+
+    /**
+     * 当前批次从一个优惠券码列表中取出的优惠券码的暂存列表, 优惠券码列表的 key 作为 hash tag,
+     * 和优惠券码列表在同一个 slot, 可以在一个脚本中移动
+     *
+     * @param jobId
+     * @param codeKey 优惠券码列表
+     * @return
+     */
+    private static String stagedCodeKey(String jobId, String codeKey) {
+        return String.format("%s%s_{%s}", Constant.RedisPrefix.DISTRIBUTE_JOB_CODES, jobId, codeKey);
+    }
+
+    /**
+     * 当前批次所有的暂存列表, 按列表序号排列
+     *
+     * @param jobId
+     * @param templateId
+     * @return
+     */
+    private static List<String> stagedCodeKeys(String jobId, Integer templateId) {
+        List<String> keys = new ArrayList<>(Constant.COUPON_CODE_SHARD_NUM + 1);
+        for (int shard = 0; shard <= Constant.COUPON_CODE_SHARD_NUM; shard++) {
+            keys.add(stagedCodeKey(jobId, codeKey(templateId, shard)));
+        }
+        return keys;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+    }
+}
@@ -1,21 +1,28 @@
 package com.imooc.coupon.service.impl;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
 import com.imooc.coupon.constant.Constant;
 import com.imooc.coupon.constant.CouponStatus;
+import com.imooc.coupon.dao.CouponBatchDao;
 import com.imooc.coupon.dao.CouponDao;
 import com.imooc.coupon.entity.Coupon;
 import com.imooc.coupon.service.IKafkaService;
+import com.imooc.coupon.vo.CouponInsertMessage;
 import com.imooc.coupon.vo.CouponKafkaMessage;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Kafka相关的服务接口实现
@@ -30,9 +37,22 @@ public class KafkaServiceImpl implements IKafkaService {
 
     private final CouponDao couponDao;
 
+    private final CouponBatchDao couponBatchDao;
+
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * 等待写入数据库的状态变化的暂存时间(秒)
+     */
+    @Value("${coupon.acquire.pending-status-ttl-seconds:604800}")
+    private long pendingStatusTtlSeconds;
+
     @Autowired
-    public KafkaServiceImpl(CouponDao couponDao) {
+    public KafkaServiceImpl(CouponDao couponDao, CouponBatchDao couponBatchDao,
+                            StringRedisTemplate redisTemplate) {
         this.couponDao = couponDao;
+        this.couponBatchDao = couponBatchDao;
+        this.redisTemplate = redisTemplate;
     }
 
     /**
@@ -65,6 +85,111 @@ public class KafkaServiceImpl implements IKafkaService {
         }
     }
 
+    /**
+     * 批量消费用户优惠券变化的 kafka 消息, 按顺序写入数据库
+     * 消息的 key 是用户id, 同一个用户的新领取优惠券和之后的状态变化在同一个分区中, 状态变化一定在写入之后执行
+     * 连续的新领取优惠券批量写入, 遇到状态变化时先写入之前的优惠券
+     * 写入失败时整批重新消费, insert ignore 和只更新可用优惠券的状态保证重复执行没有副作用
+     *
+     * @param records
+     */
+    @Override
+    @KafkaListener(topics = {Constant.INSERT_TOPIC}, groupId = "imooc-coupon-insert",
+            containerFactory = "batchListenerContainerFactory")
+    public void consumeCouponInsertMessages(List<ConsumerRecord<?, ?>> records) {
+        List<CouponInsertMessage> couponList = new ArrayList<>(records.size());
+        for (ConsumerRecord<?, ?> record : records) {
+            if (null == record.value()) {
+                continue;
+            }
+            JSONObject value = JSON.parseObject(record.value().toString());
+            // 状态变化是 CouponKafkaMessage, 带有 idList; 否则是新领取的优惠券
+            if (!value.containsKey("idList")) {
+                couponList.add(value.toJavaObject(CouponInsertMessage.class));
+                continue;
+            }
+            flushCouponInsertMessages(couponList);
+            CouponKafkaMessage statusMessage = value.toJavaObject(CouponKafkaMessage.class);
+            if (CollectionUtils.isNotEmpty(statusMessage.getIdList())) {
+                log.info("CouponKafkaMessage Batch Update Count: {}, {}", statusMessage.getStatus(),
+                        couponBatchDao.batchUpdateStatus(statusMessage.getIdList(), statusMessage.getStatus()));
+            }
+        }
+        flushCouponInsertMessages(couponList);
+    }
+
+    /**
+     * 批量写入新领取的优惠券并清空列表
+     *
+     * @param couponList
+     */
+    private void flushCouponInsertMessages(List<CouponInsertMessage> couponList) {
+        if (CollectionUtils.isNotEmpty(couponList)) {
+            log.info("CouponInsertMessage Batch Insert Count: {}", couponBatchDao.batchInsert(couponList));
+            applyPendingStatus(couponList.stream().map(CouponInsertMessage::getId).collect(Collectors.toList()));
+            couponList.clear();
+        }
+    }
+
+    /**
+     * 执行新写入的优惠券在写入之前收到的状态变化
+     *
+     * @param ids 新写入的优惠券主键
+     */
+    private void applyPendingStatus(List<Integer> ids) {
+        List<String> keys = ids.stream().map(KafkaServiceImpl::pendingStatusKey).collect(Collectors.toList());
+        List<String> statuses = redisTemplate.opsForValue().multiGet(keys);
+        if (null == statuses) {
+            return;
+        }
+
+        Map<Integer, List<Integer>> status2Ids = new HashMap<>();
+        List<String> appliedKeys = new ArrayList<>();
+        for (int i = 0; i != ids.size(); i++) {
+            if (null != statuses.get(i)) {
+                status2Ids.computeIfAbsent(Integer.valueOf(statuses.get(i)), status -> new ArrayList<>())
+                        .add(ids.get(i));
+                appliedKeys.add(keys.get(i));
+            }
+        }
+        if (status2Ids.isEmpty()) {
+            return;
+        }
+
+        status2Ids.forEach((status, statusIds) ->
+                log.info("Apply Pending Coupon Status: {}, {}, {}", status, statusIds,
+                        couponBatchDao.batchUpdateStatus(statusIds, status)));
+        redisTemplate.delete(appliedKeys);
+    }
+
+    /**
+     * 暂存还没有写入数据库的优惠券的状态变化, 由写入优惠券的消费者在写入之后执行
+     * 暂存之后再查询一次数据库, 查询和暂存之间刚好写入的优惠券在这里更新, 不会两边都错过
+     *
+     * @param ids    数据库中找不到的优惠券主键
+     * @param status 目标状态
+     */
+    private void savePendingStatus(List<Integer> ids, Integer status) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            ids.forEach(id -> connection.setEx(pendingStatusKey(id).getBytes(), pendingStatusTtlSeconds,
+                    status.toString().getBytes()));
+            return null;
+        });
+
+        List<Integer> insertedIds = couponDao.findAllById(ids).stream().map(Coupon::getId)
+                .collect(Collectors.toList());
+        if (CollectionUtils.isNotEmpty(insertedIds)) {
+            log.info("Pending Coupon Status Already Inserted: {}, {}, {}", status, insertedIds,
+                    couponBatchDao.batchUpdateStatus(insertedIds, status));
+            redisTemplate.delete(insertedIds.stream().map(KafkaServiceImpl::pendingStatusKey)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    private static String pendingStatusKey(Integer id) {
+        return Constant.RedisPrefix.COUPON_PENDING_STATUS + id;
+    }
+
     /**
      * 处理已使用的优惠券
      *
@@ -87,15 +212,24 @@ public class KafkaServiceImpl implements IKafkaService {
 
     /**
      * 根据状态处理优惠券信息
+     * 本服务产生的状态变化通过用户优惠券变化的 topic 有序写入, 这里处理其他服务发送的消息
+     * 找不到的优惠券可能是 write-behind 还没有写入数据库, 暂存状态变化, 写入之后再执行; 其余的优惠券照常更新
      *
      * @param kafkaMessage
      * @param couponStatus
      */
     private void processCouponsByStatus(CouponKafkaMessage kafkaMessage, CouponStatus couponStatus) {
         List<Coupon> couponList = couponDao.findAllById(kafkaMessage.getIdList());
-        if (CollectionUtils.isEmpty(couponList) || couponList.size() != kafkaMessage.getIdList().size()) {
-            log.error("Cannot Find Right Coupon Info: {}", JSON.toJSONString(kafkaMessage));
-            // TODO: 2020-02-19 发送错误邮件
+        if (couponList.size() != kafkaMessage.getIdList().size()) {
+            Set<Integer> foundIds = couponList.stream().map(Coupon::getId).collect(Collectors.toSet());
+            List<Integer> missingIds = kafkaMessage.getIdList().stream().filter(id -> !foundIds.contains(id))
+                    .collect(Collectors.toList());
+            // 暂存时间内没有写入的优惠券只能根据这条日志处理
+            log.warn("Cannot Find Right Coupon Info, Save Pending Status: {}, {}",
+                    JSON.toJSONString(kafkaMessage), missingIds);
+            savePendingStatus(missingIds, couponStatus.getCode());
+        }
+        if (CollectionUtils.isEmpty(couponList)) {
             return;
         }
 
@@ -1,22 +1,45 @@
 package com.imooc.coupon.service.impl;
 
 import com.alibaba.fastjson.JSON;
+import com.imooc.coupon.cache.CouponCodeBuffer;
+import com.imooc.coupon.cache.CouponNearCache;
+import com.imooc.coupon.cache.RefreshAhead;
+import com.imooc.coupon.cache.SoldOutRegistry;
+import com.imooc.coupon.cache.TemplateCache;
+import com.imooc.coupon.cache.UserCouponFilter;
+import com.imooc.coupon.constant.AcquireStatus;
 import com.imooc.coupon.constant.Constant;
 import com.imooc.coupon.constant.CouponStatus;
 import com.imooc.coupon.entity.Coupon;
 import com.imooc.coupon.exception.CouponException;
+import com.imooc.coupon.serialization.BytesRedisSerializer;
+import com.imooc.coupon.serialization.CouponCacheCodec;
 import com.imooc.coupon.service.IRedisService;
+import com.imooc.coupon.vo.CouponClassify;
+import com.imooc.coupon.vo.CouponPage;
+import com.imooc.coupon.vo.CouponTemplateSDK;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.RandomUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scripting.support.ResourceScriptSource;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -32,9 +55,170 @@ public class RedisServiceImpl implements IRedisService {
 
     private final StringRedisTemplate redisTemplate;
 
+    /**
+     * 优惠券码本地预取缓冲
+     */
+    private final CouponCodeBuffer couponCodeBuffer;
+
+    /**
+     * 优惠券模版售罄状态
+     */
+    private final SoldOutRegistry soldOutRegistry;
+
+    /**
+     * 用户优惠券列表的本地缓存
+     */
+    private final CouponNearCache couponNearCache;
+
+    /**
+     * 校验领取限制并预占名额的脚本
+     */
+    private final DefaultRedisScript<String> reserveTemplateCountScript;
+
+    /**
+     * 归还预占名额的脚本
+     */
+    private final DefaultRedisScript<Long> releaseTemplateCountScript;
+
+    /**
+     * 撤销领取的脚本
+     */
+    private final DefaultRedisScript<Long> rollbackAcquireScript;
+
+    /**
+     * 写入从数据库加载的可用优惠券并重建模版计数的脚本
+     */
+    private final DefaultRedisScript<Long> loadUsableCouponsScript;
+
+    /**
+     * 写入已经存在的用户缓存的脚本
+     */
+    private final DefaultRedisScript<Long> addCouponsIfPresentScript;
+
+    /**
+     * 可用优惠券变为已使用/已过期的脚本
+     */
+    private final DefaultRedisScript<Long> transitionStatusScript;
+
+    /**
+     * 更新所有用户最早过期时间索引的脚本
+     */
+    private final DefaultRedisScript<Long> indexExpirationScript;
+
+    /**
+     * 移动到期优惠券的脚本
+     */
+    private final DefaultRedisScript<List> expireCouponsScript;
+
+    /**
+     * 用游标分批读取用户优惠券缓存的脚本
+     */
+    private final DefaultRedisScript<List> scanUserCouponsScript;
+
+    /**
+     * 查询用户每个模版可用优惠券个数的脚本
+     */
+    private final DefaultRedisScript<List> countUserTemplatesScript;
+
+    /**
+     * 优惠券模版信息的本地缓存
+     */
+    private final TemplateCache templateCache;
+
+    /**
+     * 领取过优惠券的用户的布隆过滤器
+     */
+    private final UserCouponFilter userCouponFilter;
+
+    /**
+     * 热点用户优惠券缓存的提前续期
+     */
+    private final RefreshAhead refreshAhead;
+
+    /**
+     * 用户优惠券缓存使用的 RedisTemplate, value 是编码后的字节
+     */
+    private final RedisTemplate<String, byte[]> couponCacheTemplate;
+
+    /**
+     * 用户优惠券缓存 value 的编解码器
+     */
+    private final CouponCacheCodec couponCacheCodec;
+
+    /**
+     * lua 脚本参数的序列化器, 字节数组原样传入
+     */
+    private static final BytesRedisSerializer SCRIPT_ARGS_SERIALIZER = new BytesRedisSerializer();
+
+    /**
+     * 用户优惠券缓存的布局: split, 每种状态一个 hash; unified, 每个用户一个 hash, 状态保存在每个优惠券中
+     */
+    @Value("${coupon.cache.layout:split}")
+    private String layout;
+
+    /**
+     * 是否维护可用优惠券的过期时间索引
+     */
+    @Value("${coupon.expiration-index.enabled:false}")
+    private boolean expirationIndexEnabled;
+
     @Autowired
-    public RedisServiceImpl(StringRedisTemplate redisTemplate) {
+    public RedisServiceImpl(StringRedisTemplate redisTemplate, CouponCodeBuffer couponCodeBuffer,
+                            SoldOutRegistry soldOutRegistry, CouponNearCache couponNearCache,
+                            TemplateCache templateCache,
+                            RedisTemplate<String, byte[]> couponCacheTemplate,
+                            CouponCacheCodec couponCacheCodec,
+                            UserCouponFilter userCouponFilter,
+                            RefreshAhead refreshAhead) {
         this.redisTemplate = redisTemplate;
+        this.couponCodeBuffer = couponCodeBuffer;
+        this.soldOutRegistry = soldOutRegistry;
+        this.couponNearCache = couponNearCache;
+        this.templateCache = templateCache;
+        this.couponCacheTemplate = couponCacheTemplate;
+        this.couponCacheCodec = couponCacheCodec;
+        this.userCouponFilter = userCouponFilter;
+        this.refreshAhead = refreshAhead;
+        this.reserveTemplateCountScript = new DefaultRedisScript<>();
+        this.reserveTemplateCountScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/reserve_template_count.lua")));
+        this.reserveTemplateCountScript.setResultType(String.class);
+        this.releaseTemplateCountScript = new DefaultRedisScript<>();
+        this.releaseTemplateCountScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/release_template_count.lua")));
+        this.releaseTemplateCountScript.setResultType(Long.class);
+        this.rollbackAcquireScript = new DefaultRedisScript<>();
+        this.rollbackAcquireScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/rollback_acquire.lua")));
+        this.rollbackAcquireScript.setResultType(Long.class);
+        this.loadUsableCouponsScript = new DefaultRedisScript<>();
+        this.loadUsableCouponsScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/load_usable_coupons.lua")));
+        this.loadUsableCouponsScript.setResultType(Long.class);
+        this.addCouponsIfPresentScript = new DefaultRedisScript<>();
+        this.addCouponsIfPresentScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/add_coupons_if_present.lua")));
+        this.addCouponsIfPresentScript.setResultType(Long.class);
+        this.transitionStatusScript = new DefaultRedisScript<>();
+        this.transitionStatusScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/transition_coupon_status.lua")));
+        this.transitionStatusScript.setResultType(Long.class);
+        this.indexExpirationScript = new DefaultRedisScript<>();
+        this.indexExpirationScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/index_coupon_expiration.lua")));
+        this.indexExpirationScript.setResultType(Long.class);
+        this.expireCouponsScript = new DefaultRedisScript<>();
+        this.expireCouponsScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/expire_coupons.lua")));
+        this.expireCouponsScript.setResultType(List.class);
+        this.scanUserCouponsScript = new DefaultRedisScript<>();
+        this.scanUserCouponsScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/scan_user_coupons.lua")));
+        this.scanUserCouponsScript.setResultType(List.class);
+        this.countUserTemplatesScript = new DefaultRedisScript<>();
+        this.countUserTemplatesScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/count_user_templates.lua")));
+        this.countUserTemplatesScript.setResultType(List.class);
     }
 
     /**
@@ -45,23 +229,81 @@ public class RedisServiceImpl implements IRedisService {
      * @return
      */
     @Override
-    public List<Coupon> getCachedCoupons(Long userId, Integer status) {
+    public List<Coupon> getCachedCoupons(Long userId, Integer status) throws CouponException {
+        // 本地缓存命中也算一次读取, 活跃用户的 redis 缓存需要续期
+        refreshAhead.recordAccess(status2RedisKey(status, userId));
+
+        List<Coupon> nearCached = couponNearCache.get(userId, status);
+        if (null != nearCached) {
+            log.debug("Get Coupons From Near Cache: {}, {}", userId, status);
+            return nearCached;
+        }
         log.info("Get Coupons From Cache: {}, {}", userId, status);
+        if (isUnifiedLayout()) {
+            return getCachedCouponsFromUnified(userId, status);
+        }
 
         String redisKey = status2RedisKey(status, userId);
 
-        List<String> couponStrList = redisTemplate.opsForHash().values(redisKey).stream()
-                .map(obj -> Objects.toString(obj, null))
-                .collect(Collectors.toList());
+        List<byte[]> couponValueList = couponCacheTemplate.<String, byte[]>opsForHash().values(redisKey);
 
-        // 没有获取到就保存空的优惠券列表到缓存中，避免缓存穿透
-        if (CollectionUtils.isEmpty(couponStrList)) {
-            saveEmptyCouponListToCache(userId, Collections.singletonList(status));
+        // 没有获取到就保存空的优惠券列表到缓存中，避免缓存穿透; 开启用户过滤器时由过滤器避免缓存穿透
+        if (CollectionUtils.isEmpty(couponValueList)) {
+            if (!userCouponFilter.isEnabled()) {
+                saveEmptyCouponListToCache(userId, Collections.singletonList(status));
+            }
             return Collections.emptyList();
         }
-        return couponStrList.stream()
-                .map(couponStr -> JSON.parseObject(couponStr, Coupon.class))
+        List<Coupon> coupons = couponValueList.stream()
+                .map(couponCacheCodec::decode)
                 .collect(Collectors.toList());
+        hydrate(userId, coupons);
+        couponNearCache.put(userId, status, coupons);
+        return coupons;
+    }
+
+    /**
+     * 单 hash 布局: 一次读取用户所有状态的优惠券并分类, 其他已经加载的状态一起放入本地缓存
+     * 某个状态没有加载过(没有对应的标记 field)时和 key 不存在一样处理
+     *
+     * @param userId 用户id
+     * @param status 优惠券状态
+     * @return
+     */
+    private List<Coupon> getCachedCouponsFromUnified(Long userId, Integer status) throws CouponException {
+        Map<String, byte[]> entries = couponCacheTemplate.<String, byte[]>opsForHash()
+                .entries(status2RedisKey(status, userId));
+
+        if (!entries.containsKey(emptyMarkerField(status))) {
+            if (!userCouponFilter.isEnabled()) {
+                saveEmptyCouponListToCache(userId, Collections.singletonList(status));
+            }
+            return Collections.emptyList();
+        }
+
+        // 每个已经加载的状态都包含一张无效的优惠券, 和分开存储时的语义一致
+        Map<Integer, List<Coupon>> status2Coupons = new HashMap<>();
+        List<Coupon> coupons = new ArrayList<>(entries.size());
+        entries.forEach((field, value) -> {
+            Coupon coupon = couponCacheCodec.decode(value);
+            if (field.startsWith("-")) {
+                status2Coupons.computeIfAbsent(Integer.valueOf(field.substring(1)), k -> new ArrayList<>())
+                        .add(coupon);
+            } else {
+                coupons.add(coupon);
+            }
+        });
+        hydrate(userId, coupons);
+        coupons.forEach(coupon -> {
+            List<Coupon> statusCoupons = status2Coupons.get(coupon.getStatus().getCode());
+            if (null != statusCoupons) {
+                statusCoupons.add(coupon);
+            }
+        });
+
+        status2Coupons.forEach((loadedStatus, statusCoupons) ->
+                couponNearCache.put(userId, loadedStatus, statusCoupons));
+        return status2Coupons.get(status);
     }
 
     /**
@@ -77,8 +319,7 @@ public class RedisServiceImpl implements IRedisService {
         log.info("Save Empty List To Cache For User: {}, Status: {}", userId, JSON.toJSONString(statusList));
 
         // key 是 coupon_id，value是序列化的coupon
-        Map<String, String> invalidCouponMap = new HashMap<>();
-        invalidCouponMap.put("-1", JSON.toJSONString(Coupon.invalidCoupon()));
+        byte[] invalidCoupon = toCacheValue(Coupon.invalidCoupon());
 
         // 用户优惠券    KV结构
         // K: status -> redisKey
@@ -90,30 +331,63 @@ public class RedisServiceImpl implements IRedisService {
             public Object execute(RedisOperations redisOperations) throws DataAccessException {
                 statusList.forEach(status -> {
                     String redisKey = status2RedisKey(status, userId);
-                    redisOperations.opsForHash().putAll(redisKey, invalidCouponMap);
+                    redisOperations.opsForHash().put(redisKey, emptyMarkerField(status), invalidCoupon);
 
                 });
                 return null;
             }
         };
 
-        log.info("Pipline Exe Result: {}", JSON.toJSONString(redisTemplate.executePipelined(sessionCallback)));
+        log.info("Pipline Exe Result: {}", JSON.toJSONString(couponCacheTemplate.executePipelined(sessionCallback)));
     }
 
     /**
      * 尝试从cache中获取优惠券码
+     * 优先从本地预取缓冲中获取; 否则优惠券码分布在 COUPON_CODE_SHARD_NUM 个子列表中,
+     * 随机选择一个子列表开始依次探测, 所有子列表都为空时再尝试未拆分之前的列表
+     * 已经发现为空的子列表直接跳过, 售罄的模版不需要每次探测所有列表
      *
      * @param templateId 优惠券模版主键
      * @return 优惠券码
      */
     @Override
     public String tryToAcquireCouponCodeFromCache(Integer templateId) {
-        String redisKey = String.format("%s%s", Constant.RedisPrefix.COUPON_TEMPLATE, templateId.toString());
+        String bufferedCode = couponCodeBuffer.acquire(templateId);
+        if (null != bufferedCode) {
+            log.debug("Acquire Coupon Code From Buffer: {}, {}", templateId, bufferedCode);
+            return bufferedCode;
+        }
+
+        String redisKeyPrefix = String.format("%s%s", Constant.RedisPrefix.COUPON_TEMPLATE, templateId.toString());
+
+        int start = ThreadLocalRandom.current().nextInt(Constant.COUPON_CODE_SHARD_NUM);
+        for (int i = 0; i != Constant.COUPON_CODE_SHARD_NUM; i++) {
+            int shard = (start + i) % Constant.COUPON_CODE_SHARD_NUM;
+            if (soldOutRegistry.isShardEmpty(templateId, shard)) {
+                continue;
+            }
+            String redisKey = String.format("%s_%s", redisKeyPrefix, shard);
+
+            // 因为优惠券码不存在顺序关系，左边pop或右边pop都没有影响
+            String couponCode = redisTemplate.opsForList().leftPop(redisKey);
+            if (null != couponCode) {
+                log.info("Acquire Coupon Code: {}, {}, {}", templateId, redisKey, couponCode);
+                return couponCode;
+            }
+            soldOutRegistry.markShardEmpty(templateId, shard);
+        }
 
-        // 因为优惠券码不存在顺序关系，左边pop或右边pop都没有影响
-        String couponCode = redisTemplate.opsForList().leftPop(redisKey);
+        // 兼容未拆分子列表的模版
+        String couponCode = null;
+        if (!soldOutRegistry.isShardEmpty(templateId, Constant.COUPON_CODE_SHARD_NUM)) {
+            couponCode = redisTemplate.opsForList().leftPop(redisKeyPrefix);
+        }
+        if (null == couponCode) {
+            soldOutRegistry.markShardEmpty(templateId, Constant.COUPON_CODE_SHARD_NUM);
+            soldOutRegistry.markSoldOut(templateId);
+        }
 
-        log.info("Acquire Coupon Code: {}, {}, {}", templateId, redisKey, couponCode);
+        log.info("Acquire Coupon Code: {}, {}, {}", templateId, redisKeyPrefix, couponCode);
         return couponCode;
     }
 
@@ -144,9 +418,295 @@ public class RedisServiceImpl implements IRedisService {
                 result = addCouponToCacheForUsed(userId, couponList);
                 break;
         }
+        couponNearCache.invalidate(Collections.singletonList(userId));
         return null;
     }
 
+    /**
+     * 领取优惠券: 校验用户的领取限制并预占名额、获取优惠券码、写入用户可用优惠券缓存
+     * 预占名额和写入缓存只访问用户的 key, 获取优惠券码只访问模版的一个优惠券码列表,
+     * redis 集群下每个脚本都不会跨 slot; 预占在获取优惠券码之前, 并发领取也不会超过领取限制
+     * 预占之后出错时归还名额并放回优惠券码, 再抛出异常
+     *
+     * @param coupon 需要领取的优惠券, 主键、模版、用户、领取时间、模版信息已经填充
+     * @param limitation 模版的领取限制
+     * @return {@link AcquireStatus}
+     */
+    @Override
+    public AcquireStatus acquireCouponToCache(Coupon coupon, Integer limitation) {
+        String redisKey = status2RedisKey(CouponStatus.USABLE.getCode(), coupon.getUserId());
+        String countKey = templateCountKey(coupon.getUserId());
+        String marker = isUnifiedLayout() ? emptyMarkerField(CouponStatus.USABLE.getCode()) : "";
+        String ttl = getRandomExpirationTime(1, 2).toString();
+
+        String reserved = redisTemplate.execute(reserveTemplateCountScript, Arrays.asList(redisKey, countKey),
+                coupon.getTemplateId().toString(), limitation.toString(), marker, ttl);
+        log.info("Reserve Template Count: {}, {}, {}", coupon.getUserId(), coupon.getTemplateId(), reserved);
+        if ("MISS".equals(reserved)) {
+            return AcquireStatus.CACHE_MISS;
+        }
+        if ("LIMIT".equals(reserved)) {
+            return AcquireStatus.LIMITED;
+        }
+
+        // 预占之后的任何一步失败都需要归还名额, 已经弹出的优惠券码放回优惠券码列表
+        try {
+            String couponCode = tryToAcquireCouponCodeFromCache(coupon.getTemplateId());
+            if (null == couponCode) {
+                redisTemplate.execute(releaseTemplateCountScript, Collections.singletonList(countKey),
+                        coupon.getTemplateId().toString());
+                return AcquireStatus.NO_CODE;
+            }
+            coupon.setCouponCode(couponCode);
+
+            // 名额已经预占, 写入缓存时不再修改计数
+            Long added = redisTemplate.execute(addCouponsIfPresentScript, SCRIPT_ARGS_SERIALIZER,
+                    new GenericToStringSerializer<>(Long.class), Arrays.asList(redisKey, countKey),
+                    ttl, marker, "0", coupon.getId().toString(), toCacheValue(coupon),
+                    coupon.getTemplateId().toString());
+            log.info("Acquire Coupon To Cache: {}, {}, {}", coupon.getUserId(), coupon.getTemplateId(), added);
+
+            couponNearCache.invalidate(Collections.singletonList(coupon.getUserId()));
+            userCouponFilter.markHasCoupons(Collections.singletonList(coupon.getUserId()));
+            if (null == added || added == 0) {
+                // 缓存在领取过程中失效, 下次查询从数据库加载, 调用方需要同步写入数据库
+                return AcquireStatus.SUCCESS_UNCACHED;
+            }
+            indexExpiration(Collections.singletonList(coupon));
+            return AcquireStatus.SUCCESS;
+        } catch (RuntimeException ex) {
+            log.error("Acquire Coupon To Cache Error: {}, {}, {}",
+                    coupon.getUserId(), coupon.getTemplateId(), ex.getMessage());
+            cancelReservation(coupon, countKey);
+            throw ex;
+        }
+    }
+
+    /**
+     * 领取过程中出错时撤销预占: 还没有获取到优惠券码时只归还名额, 否则按没有写入缓存撤销,
+     * 删除可能已经写入的缓存、归还名额并放回优惠券码
+     *
+     * @param coupon 正在领取的优惠券
+     * @param countKey 用户每个模版的可用优惠券个数
+     */
+    private void cancelReservation(Coupon coupon, String countKey) {
+        try {
+            if (null == coupon.getCouponCode()) {
+                redisTemplate.execute(releaseTemplateCountScript, Collections.singletonList(countKey),
+                        coupon.getTemplateId().toString());
+            } else {
+                rollbackAcquire(coupon, false);
+                coupon.setCouponCode(null);
+            }
+        } catch (RuntimeException ex) {
+            // 名额在计数过期之后恢复, 优惠券码只能在日志中找回
+            log.error("Cancel Acquire Reservation Error: {}, {}, {}, {}", coupon.getUserId(),
+                    coupon.getTemplateId(), coupon.getCouponCode(), ex.getMessage());
+        }
+    }
+
+    /**
+     * 撤销领取: 领取的优惠券写入数据库失败时删除缓存、归还预占的名额, 并把优惠券码放回优惠券码列表
+     * 所有用户最早过期时间的索引不做修改, 定时任务处理时发现没有到期的优惠券会自动删除
+     *
+     * @param coupon 领取成功的优惠券
+     * @param cached 优惠券是否已经写入缓存
+     */
+    @Override
+    public void rollbackAcquire(Coupon coupon, boolean cached) {
+        Long removed = redisTemplate.execute(rollbackAcquireScript,
+                Arrays.asList(status2RedisKey(CouponStatus.USABLE.getCode(), coupon.getUserId()),
+                        templateCountKey(coupon.getUserId()),
+                        expirationIndexKey(coupon.getUserId())),
+                coupon.getId().toString(), coupon.getTemplateId().toString(), cached ? "1" : "0");
+        couponNearCache.invalidate(Collections.singletonList(coupon.getUserId()));
+
+        // 优惠券码放回随机的子列表, 通知所有节点清除售罄状态和为空的子列表
+        String redisKey = String.format("%s%s_%s", Constant.RedisPrefix.COUPON_TEMPLATE, coupon.getTemplateId(),
+                ThreadLocalRandom.current().nextInt(Constant.COUPON_CODE_SHARD_NUM));
+        redisTemplate.opsForList().rightPush(redisKey, coupon.getCouponCode());
+        soldOutRegistry.markRestocked(coupon.getTemplateId());
+        log.info("Rollback Acquire Coupon: {}, {}, {}", coupon.getUserId(), coupon.getId(), removed);
+    }
+
+    /**
+     * 批量将新领取的优惠券加入到各自用户的可用优惠券缓存中, 只写入已经存在的缓存
+     * 缓存不存在的用户下次查询时从数据库中加载, 避免缓存中只有部分优惠券
+     * 每个用户执行一次脚本, redis 集群下脚本不会跨 slot
+     *
+     * @param couponList 优惠券, 可以属于不同的用户
+     * @return 写入缓存的个数
+     */
+    @Override
+    public Integer addCouponsToCacheIfPresent(List<Coupon> couponList) {
+        if (CollectionUtils.isEmpty(couponList)) {
+            return 0;
+        }
+
+        String ttl = getRandomExpirationTime(1, 2).toString();
+        String marker = isUnifiedLayout() ? emptyMarkerField(CouponStatus.USABLE.getCode()) : "";
+        Map<Long, List<Coupon>> user2Coupons = couponList.stream()
+                .collect(Collectors.groupingBy(Coupon::getUserId, LinkedHashMap::new, Collectors.toList()));
+        long count = 0;
+        for (Map.Entry<Long, List<Coupon>> entry : user2Coupons.entrySet()) {
+            List<Coupon> coupons = entry.getValue();
+            Object[] args = new Object[coupons.size() * 3 + 3];
+            args[0] = ttl;
+            args[1] = marker;
+            args[2] = "1";
+            for (int i = 0; i != coupons.size(); i++) {
+                Coupon coupon = coupons.get(i);
+                args[3 * i + 3] = coupon.getId().toString();
+                args[3 * i + 4] = toCacheValue(coupon);
+                args[3 * i + 5] = coupon.getTemplateId().toString();
+            }
+            Long added = redisTemplate.execute(addCouponsIfPresentScript, SCRIPT_ARGS_SERIALIZER,
+                    new GenericToStringSerializer<>(Long.class),
+                    Arrays.asList(status2RedisKey(CouponStatus.USABLE.getCode(), entry.getKey()),
+                            templateCountKey(entry.getKey())),
+                    args);
+            count += null == added ? 0 : added;
+        }
+        List<Long> userIds = couponList.stream().map(Coupon::getUserId).collect(Collectors.toList());
+        couponNearCache.invalidate(userIds);
+        userCouponFilter.markHasCoupons(userIds);
+        indexExpiration(couponList);
+        log.info("Add Coupons To Cache If Present: {}, {}", couponList.size(), count);
+        return (int) count;
+    }
+
+    /**
+     * 查询用户已经到期但还在可用优惠券缓存中的优惠券
+     *
+     * @param userId
+     * @return 到期的优惠券id; 没有开启过期时间索引时返回 null
+     */
+    @Override
+    public Set<Integer> findExpiredCouponIds(Long userId) {
+        if (!expirationIndexEnabled) {
+            return null;
+        }
+        Set<String> ids = redisTemplate.opsForZSet().rangeByScore(
+                expirationIndexKey(userId), Double.NEGATIVE_INFINITY, System.currentTimeMillis());
+        if (CollectionUtils.isEmpty(ids)) {
+            return Collections.emptySet();
+        }
+        return ids.stream().map(Integer::valueOf).collect(Collectors.toSet());
+    }
+
+    /**
+     * 查询有到期优惠券的用户
+     *
+     * @param count 最多返回的用户个数
+     * @return
+     */
+    @Override
+    public List<Long> findUsersWithExpiredCoupons(Integer count) {
+        Set<String> userIds = redisTemplate.opsForZSet().rangeByScore(
+                Constant.RedisPrefix.USER_COUPON_EXPIRATION_USERS,
+                Double.NEGATIVE_INFINITY, System.currentTimeMillis(), 0, count);
+        if (CollectionUtils.isEmpty(userIds)) {
+            return Collections.emptyList();
+        }
+        return userIds.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * 把用户到期的可用优惠券移动到已过期, 并从过期时间索引中删除
+     * 脚本只访问用户的 key, 之后再更新所有用户最早过期时间的索引
+     *
+     * @param userId
+     * @param count 最多处理的优惠券个数
+     * @return 到期的优惠券id, 缓存中没有的也会返回, 需要更新数据库
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Integer> expireCoupons(Long userId, Integer count) {
+        List<String> keys = Arrays.asList(
+                status2RedisKey(CouponStatus.USABLE.getCode(), userId),
+                status2RedisKey(CouponStatus.EXPIRED.getCode(), userId),
+                expirationIndexKey(userId),
+                templateCountKey(userId)
+        );
+        List<String> result = redisTemplate.execute(expireCouponsScript, keys,
+                String.valueOf(System.currentTimeMillis()),
+                getRandomExpirationTime(1, 2).toString(),
+                count.toString());
+        if (CollectionUtils.isEmpty(result)) {
+            return Collections.emptyList();
+        }
+        updateExpirationUsers(userId, result.get(0));
+
+        List<String> ids = result.subList(1, result.size());
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        couponNearCache.invalidate(Collections.singletonList(userId));
+        log.info("Expire Coupons In Cache: {}, {}", userId, ids);
+        return ids.stream().map(Integer::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * 用 HSCAN 游标分批读取用户优惠券缓存, 每次只传输一批优惠券
+     * HSCAN 可能返回重复的优惠券, 也可能返回少于 count 个
+     *
+     * @param userId
+     * @param status
+     * @param cursor HSCAN 游标, 从 0 开始
+     * @param count 每次扫描的 field 个数
+     * @return 缓存不存在时返回 null; 游标为 null 时表示已经扫描完
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public CouponPage scanCachedCoupons(Long userId, Integer status, String cursor, Integer count) throws CouponException {
+        // 结果中的每个元素都原样返回字节数组
+        RedisSerializer<List> resultSerializer = (RedisSerializer) SCRIPT_ARGS_SERIALIZER;
+        List<byte[]> result = couponCacheTemplate.execute(scanUserCouponsScript, SCRIPT_ARGS_SERIALIZER,
+                resultSerializer, Collections.singletonList(status2RedisKey(status, userId)),
+                cursor, count.toString(), isUnifiedLayout() ? emptyMarkerField(status) : "");
+        if (CollectionUtils.isEmpty(result)) {
+            return null;
+        }
+
+        String nextCursor = new String(result.get(0), StandardCharsets.UTF_8);
+        List<Coupon> coupons = new ArrayList<>(result.size() / 2);
+        for (int i = 1; i + 1 < result.size(); i += 2) {
+            // 跳过表示已经加载的无效优惠券
+            if (result.get(i)[0] == '-') {
+                continue;
+            }
+            Coupon coupon = couponCacheCodec.decode(result.get(i + 1));
+            if (!isUnifiedLayout() || coupon.getStatus().getCode().equals(status)) {
+                coupons.add(coupon);
+            }
+        }
+        hydrate(userId, coupons);
+        return new CouponPage(coupons, "0".equals(nextCursor) ? null : nextCursor);
+    }
+
+    /**
+     * 查询用户每个模版的可用优惠券个数, 计数不存在时从用户优惠券缓存中重建
+     *
+     * @param userId
+     * @return 模版id -> 可用优惠券个数; 用户可用优惠券缓存不存在时返回 null
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Integer, Integer> getTemplateCounts(Long userId) {
+        List<String> result = redisTemplate.execute(countUserTemplatesScript,
+                Arrays.asList(status2RedisKey(CouponStatus.USABLE.getCode(), userId), templateCountKey(userId)),
+                isUnifiedLayout() ? emptyMarkerField(CouponStatus.USABLE.getCode()) : "",
+                getRandomExpirationTime(1, 2).toString());
+        if (null == result) {
+            return null;
+        }
+        Map<Integer, Integer> templateCounts = new HashMap<>(result.size() / 2);
+        for (int i = 0; i + 1 < result.size(); i += 2) {
+            templateCounts.put(Integer.valueOf(result.get(i)), Integer.valueOf(result.get(i + 1)));
+        }
+        return templateCounts;
+    }
+
     /**
      * 新增加优惠券到Cache中
      *
@@ -159,21 +719,25 @@ public class RedisServiceImpl implements IRedisService {
         // 如果status是USABLE，代表是新增加的优惠券，只会影响一个Cache：USER_COUPON_USABLE_
         log.info("Add Coupon To Cache For Usable.");
 
-        Map<String, String> needCachedObject = new HashMap<>(couponList.size());
-        couponList.forEach(coupon ->
-                // key 是 coupon_id，value是序列化的coupon
-                needCachedObject.put(
-                        coupon.getId().toString(),
-                        JSON.toJSONString(coupon)
-                ));
+        // key 是 coupon_id，value是序列化的coupon
+        Object[] args = new Object[couponList.size() * 2 + 1];
+        args[0] = getRandomExpirationTime(1, 2).toString();
+        for (int i = 0; i != couponList.size(); i++) {
+            Coupon coupon = couponList.get(i);
+            args[2 * i + 1] = coupon.getId().toString();
+            args[2 * i + 2] = toCacheValue(coupon);
+        }
         String redisKey = status2RedisKey(CouponStatus.USABLE.getCode(), userId);
 
-        redisTemplate.opsForHash().putAll(redisKey, needCachedObject);
-        log.info("Add {} Coupons To Cache: {}, {}", needCachedObject.size(), userId, redisKey);
+        // 写入缓存和重建模版计数在一个脚本中完成, 已经存在的计数保留, 不会覆盖并发领取预占的名额
+        Long added = redisTemplate.execute(loadUsableCouponsScript, SCRIPT_ARGS_SERIALIZER,
+                new GenericToStringSerializer<>(Long.class), Arrays.asList(redisKey, templateCountKey(userId)),
+                args);
+        log.info("Add {} Coupons To Cache: {}, {}", added, userId, redisKey);
 
-        redisTemplate.expire(redisKey, getRandomExpirationTime(1, 2), TimeUnit.SECONDS);
+        indexExpiration(couponList);
 
-        return needCachedObject.size();
+        return null == added ? 0 : added.intValue();
     }
 
     /**
@@ -186,120 +750,237 @@ public class RedisServiceImpl implements IRedisService {
     private Integer addCouponToCacheForUsed(Long userId, List<Coupon> couponList) throws CouponException {
         // 如果 status 是 USED，代表用户操作是使用当前的优惠券，影响到两个 Cache -- USABLE 、USED
         log.debug("Add Coupon To Cache For Used.");
+        return transitionStatus(userId, couponList, CouponStatus.USED);
+    }
 
-        Map<String, String> needCachedForUsed = new HashMap<>(couponList.size());
-
-        String redisKeyForUsable = status2RedisKey(CouponStatus.USABLE.getCode(), userId);
-        String redisKeyForUsed = status2RedisKey(CouponStatus.USED.getCode(), userId);
-
-        //获取当前用户可用的优惠券
-        List<Coupon> currentUsableCouponList = getCachedCoupons(userId, CouponStatus.USABLE.getCode());
+    /**
+     * 将优惠券加入到Cache中
+     *
+     * @param userId
+     * @param couponList
+     * @return
+     */
+    private Integer addCouponToCacheForExpired(Long userId, List<Coupon> couponList) throws CouponException {
+        // status 是 EXPIRED，代表是已有的优惠券过期了，影响到两个Cache：USABLE、EXPIRED
+        log.debug("Add Coupon To Cache For Expired.");
+        return transitionStatus(userId, couponList, CouponStatus.EXPIRED);
+    }
 
-        // 可用的优惠券数量 一定大于 将已使用的
-        assert currentUsableCouponList.size() > couponList.size();
+    /**
+     * 可用的优惠券变为已使用或已过期, 校验、移动和重置过期时间在脚本中原子完成
+     * 只传输涉及的优惠券, 不读取整个可用优惠券列表
+     *
+     * @param userId
+     * @param couponList
+     * @param target 目标状态
+     * @return
+     * @throws CouponException 优惠券不在可用优惠券缓存中
+     */
+    private Integer transitionStatus(Long userId, List<Coupon> couponList, CouponStatus target)
+            throws CouponException {
+        if (CollectionUtils.isEmpty(couponList)) {
+            return 0;
+        }
+        List<String> keys = Arrays.asList(
+                status2RedisKey(CouponStatus.USABLE.getCode(), userId),
+                status2RedisKey(target.getCode(), userId),
+                expirationIndexKey(userId),
+                templateCountKey(userId)
+        );
+        Object[] args = new Object[couponList.size() * 3 + 1];
+        args[0] = getRandomExpirationTime(1, 2).toString();
+        for (int i = 0; i != couponList.size(); i++) {
+            Coupon coupon = couponList.get(i);
+            coupon.setStatus(target);
+            args[3 * i + 1] = coupon.getId().toString();
+            args[3 * i + 2] = toCacheValue(coupon);
+            args[3 * i + 3] = coupon.getTemplateId().toString();
+        }
 
-        couponList.forEach(coupon -> needCachedForUsed.put(coupon.getId().toString(), JSON.toJSONString(coupon)));
+        Long count = redisTemplate.execute(transitionStatusScript, SCRIPT_ARGS_SERIALIZER,
+                new GenericToStringSerializer<>(Long.class), keys, args);
+        if (null == count || count < 0) {
+            List<Integer> paramIdList = couponList.stream()
+                    .map(Coupon::getId)
+                    .collect(Collectors.toList());
+            log.error("Current Coupon List Is Not Equal To Cache: {}, {}", userId, JSON.toJSONString(paramIdList));
+            throw new CouponException("Current Coupon List Is Not Equal To Cache");
+        }
+        log.info("Transition Coupons To {}: {}, {}", target, userId, count);
+        return count.intValue();
+    }
 
-        // 校验当前的优惠券参数是否与 Cached 中的匹配
-        List<Integer> currentUsableIdList = currentUsableCouponList.stream()
-                .map(Coupon::getId)
-                .collect(Collectors.toList());
-        List<Integer> paramUsedIdList = couponList.stream()
-                .map(Coupon::getId)
-                .collect(Collectors.toList());
+    /**
+     * 移动到期优惠券之后更新用户在所有用户最早过期时间索引中的时间
+     * 用户没有剩余的优惠券时删除, 删除之后再检查一次, 并发写入的过期时间不会因为删除而丢失
+     *
+     * @param userId
+     * @param first 用户索引中剩余的最早过期时间, 为空时表示没有剩余
+     */
+    private void updateExpirationUsers(Long userId, String first) {
+        if (!first.isEmpty()) {
+            redisTemplate.opsForZSet().add(Constant.RedisPrefix.USER_COUPON_EXPIRATION_USERS,
+                    userId.toString(), Double.parseDouble(first));
+            return;
+        }
+        redisTemplate.opsForZSet().remove(Constant.RedisPrefix.USER_COUPON_EXPIRATION_USERS, userId.toString());
+        Set<ZSetOperations.TypedTuple<String>> remain = redisTemplate.opsForZSet()
+                .rangeWithScores(expirationIndexKey(userId), 0, 0);
+        if (CollectionUtils.isNotEmpty(remain)) {
+            redisTemplate.execute(indexExpirationScript,
+                    Collections.singletonList(Constant.RedisPrefix.USER_COUPON_EXPIRATION_USERS),
+                    userId.toString(), String.valueOf(remain.iterator().next().getScore().longValue()));
+        }
+    }
 
-        if (!CollectionUtils.isSubCollection(paramUsedIdList, currentUsableCouponList)) {
-            log.error("CurCoupons Is Not Equal To Cache: {}, {}, {}", userId,
-                    JSON.toJSONString(paramUsedIdList),
-                    JSON.toJSONString(currentUsableCouponList));
-            throw new CouponException("CurCoupons Is Not Equal To Cache.");
+    /**
+     * 记录可用优惠券的过期时间, 过期时间只在写入缓存时计算一次
+     * 没有模版信息的优惠券从模版缓存中获取
+     * 先写入每个用户的索引, 再更新所有用户最早过期时间的索引, redis 集群下脚本不会跨 slot
+     *
+     * @param couponList 优惠券, 可以属于不同的用户
+     */
+    private void indexExpiration(List<Coupon> couponList) {
+        if (!expirationIndexEnabled || CollectionUtils.isEmpty(couponList)) {
+            return;
         }
+        Map<Integer, CouponTemplateSDK> id2Template = templateCache.getAll(couponList.stream()
+                .filter(coupon -> null == coupon.getTemplateSDK())
+                .map(Coupon::getTemplateId)
+                .collect(Collectors.toSet()));
+        Map<Long, List<Coupon>> user2Coupons = couponList.stream()
+                .filter(coupon -> coupon.getId() != -1)
+                .collect(Collectors.groupingBy(Coupon::getUserId, LinkedHashMap::new, Collectors.toList()));
 
-        List<String> needCleanKey = paramUsedIdList.stream()
-                .map(Object::toString)
-                .collect(Collectors.toList());
+        Map<String, Set<ZSetOperations.TypedTuple<String>>> index2Tuples = new HashMap<>(user2Coupons.size());
+        List<String> args = new ArrayList<>(user2Coupons.size() * 2);
+        user2Coupons.forEach((userId, coupons) -> {
+            Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(coupons.size());
+            long first = Long.MAX_VALUE;
+            for (Coupon coupon : coupons) {
+                CouponTemplateSDK template = null != coupon.getTemplateSDK()
+                        ? coupon.getTemplateSDK() : id2Template.get(coupon.getTemplateId());
+                if (null == template) {
+                    log.warn("Cannot Index Coupon Expiration Without Template: {}", coupon.getId());
+                    continue;
+                }
+                long expiration = CouponClassify.expirationOf(template, coupon.getAssignTime());
+                tuples.add(new DefaultTypedTuple<>(coupon.getId().toString(), (double) expiration));
+                first = Math.min(first, expiration);
+            }
+            if (tuples.isEmpty()) {
+                return;
+            }
+            index2Tuples.put(expirationIndexKey(userId), tuples);
+            args.add(userId.toString());
+            args.add(String.valueOf(first));
+        });
+        if (index2Tuples.isEmpty()) {
+            return;
+        }
 
         SessionCallback<Object> sessionCallback = new SessionCallback<Object>() {
             @Override
-            public Object execute(RedisOperations redisOperations) throws DataAccessException {
-                //1、已使用的优惠券 Cache 缓存添加
-                redisOperations.opsForHash().putAll(redisKeyForUsed, needCachedForUsed);
-
-                //2、可用的优惠券 Cache 需要清理
-                redisOperations.opsForHash().delete(redisKeyForUsable, needCleanKey.toArray());
-
-                //3、重置过期时间
-                redisOperations.expire(redisKeyForUsable, getRandomExpirationTime(1, 2), TimeUnit.SECONDS);
-
-                redisOperations.expire(redisKeyForUsed, getRandomExpirationTime(1, 2), TimeUnit.SECONDS);
-
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                index2Tuples.forEach((key, tuples) -> operations.opsForZSet().add(key, tuples));
                 return null;
             }
         };
-
-        log.info("Pipline Exe Result: {}", JSON.toJSONString(redisTemplate.executePipelined(sessionCallback)));
-
-        return couponList.size();
+        redisTemplate.executePipelined(sessionCallback);
+        redisTemplate.execute(indexExpirationScript,
+                Collections.singletonList(Constant.RedisPrefix.USER_COUPON_EXPIRATION_USERS), args.toArray());
     }
 
     /**
-     * 将优惠券加入到Cache中
+     * 用户每个模版的可用优惠券个数 key
      *
      * @param userId
-     * @param couponList
      * @return
      */
-    private Integer addCouponToCacheForExpired(Long userId, List<Coupon> couponList) throws CouponException {
-        // status 是 EXPIRED，代表是已有的优惠券过期了，影响到两个Cache：USABLE、EXPIRED
-        log.debug("Add Coupon To Cache For Expired.");
-
-        //最终需要保存的Cache
-        Map<String, String> needCachedForExpired = new HashMap<>(couponList.size());
-
-        String redisKeyForUsable = status2RedisKey(CouponStatus.USABLE.getCode(), userId);
-        String redisKeyForExpired = status2RedisKey(CouponStatus.EXPIRED.getCode(), userId);
+    private String templateCountKey(Long userId) {
+        return userKey(Constant.RedisPrefix.USER_COUPON_TEMPLATE_COUNT, userId);
+    }
 
-        List<Coupon> currentUsableCouponList = getCachedCoupons(userId, CouponStatus.USABLE.getCode());
-        List<Coupon> currentExpiredCouponList = getCachedCoupons(userId, CouponStatus.EXPIRED.getCode());
+    /**
+     * 用户可用优惠券的过期时间索引 key
+     *
+     * @param userId
+     * @return
+     */
+    private String expirationIndexKey(Long userId) {
+        return userKey(Constant.RedisPrefix.USER_COUPON_EXPIRATION, userId);
+    }
 
-        //当前可用的优惠券个数一定是大于1de
-        assert currentUsableCouponList.size() > couponList.size();
+    /**
+     * 用户相关的 key, 用户id作为 hash tag, redis 集群下同一个用户的 key 在同一个 slot, 可以在一个脚本中访问
+     *
+     * @param prefix
+     * @param userId
+     * @return
+     */
+    private static String userKey(String prefix, Long userId) {
+        return String.format("%s{%s}", prefix, userId);
+    }
 
-        couponList.forEach(coupon -> needCachedForExpired.put(coupon.getId().toString(), JSON.toJSONString(coupon)));
+    /**
+     * 是否使用单 hash 布局
+     *
+     * @return
+     */
+    private boolean isUnifiedLayout() {
+        return "unified".equals(layout);
+    }
 
-        //校验当前的优惠券参数是否与 Cache 中的匹配
-        List<Integer> currentUsableIdList = currentUsableCouponList.stream()
-                .map(Coupon::getId)
-                .collect(Collectors.toList());
-        List<Integer> paramIdList = couponList.stream()
-                .map(Coupon::getId)
-                .collect(Collectors.toList());
-        if (!CollectionUtils.isSubCollection(paramIdList, currentUsableIdList)) {
-            log.error("Current Coupon List Is Not Equal To Cache: {}, {}, {}", userId,
-                    JSON.toJSONString(paramIdList),
-                    JSON.toJSONString(currentUsableIdList));
-            throw new CouponException("Current Coupon List Is Not Equal To Cache");
+    /**
+     * 表示某个状态的优惠券已经加载到缓存的 field, value 是一张无效的优惠券
+     * 分开存储时每个 hash 只有一种状态, 都是 -1; 单 hash 布局时是 -状态编码
+     *
+     * @param status
+     * @return
+     */
+    private String emptyMarkerField(Integer status) {
+        return isUnifiedLayout() ? "-" + status : "-1";
+    }
 
-        }
+    /**
+     * 优惠券序列化为缓存的 value, 不包含用户id和模版信息
+     *
+     * @param coupon
+     * @return
+     */
+    private byte[] toCacheValue(Coupon coupon) {
+        return couponCacheCodec.encode(coupon);
+    }
 
-        List<String> needCleanKey = paramIdList.stream()
-                .map(Object::toString)
-                .collect(Collectors.toList());
-        SessionCallback<Object> sessionCallback = new SessionCallback<Object>() {
-            @Override
-            public Object execute(RedisOperations redisOperations) throws DataAccessException {
-                //1、已过期的优惠券cache缓存
-                redisOperations.opsForHash().putAll(redisKeyForExpired, needCachedForExpired);
-                //2、可用的优惠券cache需要清理
-                redisOperations.opsForHash().delete(redisKeyForUsable, needCleanKey);
-                //3、重置过期时间
-                redisOperations.expire(redisKeyForUsable, getRandomExpirationTime(1, 2), TimeUnit.SECONDS);
-                redisOperations.expire(redisKeyForExpired, getRandomExpirationTime(1, 2), TimeUnit.SECONDS);
-                return null;
+    /**
+     * 填充从缓存中读取的优惠券的用户id和模版信息
+     * 旧格式的缓存中带有模版信息, 模版缓存中没有时保留原来的
+     * 模版服务不可用并且没有过期的模版信息时直接失败, 不返回没有模版信息的优惠券
+     *
+     * @param userId
+     * @param coupons
+     * @throws CouponException 无法获取优惠券的模版信息
+     */
+    private void hydrate(Long userId, List<Coupon> coupons) throws CouponException {
+        Map<Integer, CouponTemplateSDK> id2Template = templateCache.getAll(coupons.stream()
+                .map(Coupon::getTemplateId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet()));
+        for (Coupon coupon : coupons) {
+            if (coupon.getId() == -1) {
+                continue;
             }
-        };
-        log.info("Pipeline Exe Result: {}", JSON.toJSONString(redisTemplate.executePipelined(sessionCallback)));
-        return couponList.size();
+            coupon.setUserId(userId);
+            CouponTemplateSDK template = id2Template.get(coupon.getTemplateId());
+            if (null != template) {
+                coupon.setTemplateSDK(template);
+            }
+            if (null == coupon.getTemplateSDK()) {
+                log.error("Cannot Hydrate Coupon Template: {}, {}", coupon.getId(), coupon.getTemplateId());
+                throw new CouponException("Cannot Acquire Template Of Coupon: " + coupon.getId());
+            }
+        }
     }
 
     /**
@@ -310,18 +991,21 @@ public class RedisServiceImpl implements IRedisService {
      * @return
      */
     private String status2RedisKey(Integer status, Long userId) {
+        if (isUnifiedLayout()) {
+            return userKey(Constant.RedisPrefix.USER_COUPON, userId);
+        }
         String redisKey = null;
         CouponStatus couponStatus = CouponStatus.of(status);
 
         switch (couponStatus) {
             case USED:
-                redisKey = String.format("%s%s", Constant.RedisPrefix.USER_COUPON_USED, userId);
+                redisKey = userKey(Constant.RedisPrefix.USER_COUPON_USED, userId);
                 break;
             case USABLE:
-                redisKey = String.format("%s%s", Constant.RedisPrefix.USER_COUPON_USABLE, userId);
+                redisKey = userKey(Constant.RedisPrefix.USER_COUPON_USABLE, userId);
                 break;
             case EXPIRED:
-                redisKey = String.format("%s%s", Constant.RedisPrefix.USER_COUPON_EXPIRED, userId);
+                redisKey = userKey(Constant.RedisPrefix.USER_COUPON_EXPIRED, userId);
                 break;
         }
         return redisKey;
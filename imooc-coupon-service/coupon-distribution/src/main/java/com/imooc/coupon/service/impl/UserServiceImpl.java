@@ -1,6 +1,12 @@
 package com.imooc.coupon.service.impl;
 
 import com.alibaba.fastjson.JSON;
+import com.imooc.coupon.cache.SingleFlight;
+import com.imooc.coupon.cache.SoldOutRegistry;
+import com.imooc.coupon.cache.TemplateCache;
+import com.imooc.coupon.cache.TemplateSnapshot;
+import com.imooc.coupon.cache.UserCouponFilter;
+import com.imooc.coupon.constant.AcquireStatus;
 import com.imooc.coupon.constant.Constant;
 import com.imooc.coupon.constant.CouponStatus;
 import com.imooc.coupon.dao.CouponDao;
@@ -8,18 +14,24 @@ import com.imooc.coupon.entity.Coupon;
 import com.imooc.coupon.exception.CouponException;
 import com.imooc.coupon.feign.SettlementClient;
 import com.imooc.coupon.feign.TemplateClient;
+import com.imooc.coupon.generator.CouponIdGenerator;
+import com.imooc.coupon.limiter.TemplateAdmission;
 import com.imooc.coupon.service.IRedisService;
 import com.imooc.coupon.service.IUserService;
 import com.imooc.coupon.vo.*;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 /**
@@ -56,16 +68,93 @@ public class UserServiceImpl implements IUserService {
 
     private final KafkaTemplate<String, String> kafkaTemplate;
 
+    /**
+     * 优惠券主键生成器
+     */
+    private final CouponIdGenerator couponIdGenerator;
+
+    /**
+     * 优惠券模版售罄状态
+     */
+    private final SoldOutRegistry soldOutRegistry;
+
+    /**
+     * 按模版排队领取
+     */
+    private final TemplateAdmission templateAdmission;
+
+    /**
+     * 优惠券模版信息的本地缓存
+     */
+    private final TemplateCache templateCache;
+
+    /**
+     * 可用模版的本地快照
+     */
+    private final TemplateSnapshot templateSnapshot;
+
+    /**
+     * 领取过优惠券的用户的布隆过滤器
+     */
+    private final UserCouponFilter userCouponFilter;
+
+    /**
+     * 缓存重建的合并加载
+     */
+    private final SingleFlight singleFlight;
+
+    /**
+     * 领取优惠券时是否异步写入数据库
+     */
+    @Value("${coupon.acquire.write-behind:false}")
+    private boolean writeBehind;
+
+    /**
+     * 异步写入时等待 kafka 确认的时间, 超时或者发送失败时直接写入数据库
+     */
+    @Value("${coupon.acquire.write-behind-timeout-millis:1000}")
+    private long writeBehindTimeoutMillis;
+
+    /**
+     * 分页查询时每页最多的优惠券个数
+     */
+    @Value("${coupon.page.max-size:500}")
+    private int maxPageSize;
+
+    /**
+     * 分页游标前缀: 扫描 redis 缓存, 后面是 HSCAN 游标
+     */
+    private static final String CACHE_CURSOR_PREFIX = "r:";
+
+    /**
+     * 分页游标前缀: 查询数据库, 后面是上一页最后一条记录的主键
+     */
+    private static final String DB_CURSOR_PREFIX = "d:";
+
     @Autowired
     public UserServiceImpl(CouponDao couponDao, IRedisService redisService,
                            TemplateClient templateClient,
                            SettlementClient settlementClient,
-                           KafkaTemplate<String, String> kafkaTemplate) {
+                           KafkaTemplate<String, String> kafkaTemplate,
+                           CouponIdGenerator couponIdGenerator,
+                           SoldOutRegistry soldOutRegistry,
+                           TemplateAdmission templateAdmission,
+                           TemplateCache templateCache,
+                           TemplateSnapshot templateSnapshot,
+                           UserCouponFilter userCouponFilter,
+                           SingleFlight singleFlight) {
         this.couponDao = couponDao;
         this.redisService = redisService;
         this.templateClient = templateClient;
         this.settlementClient = settlementClient;
         this.kafkaTemplate = kafkaTemplate;
+        this.couponIdGenerator = couponIdGenerator;
+        this.soldOutRegistry = soldOutRegistry;
+        this.templateAdmission = templateAdmission;
+        this.templateCache = templateCache;
+        this.templateSnapshot = templateSnapshot;
+        this.userCouponFilter = userCouponFilter;
+        this.singleFlight = singleFlight;
     }
 
     /**
@@ -86,38 +175,46 @@ public class UserServiceImpl implements IUserService {
             log.debug("coupon cache is not empty: {}, {}", userId, status);
             preTarget = currentCachedList;
         } else {
-            log.debug("coupon cache is empty, get coupon from db: {}, {}", userId, status);
-            List<Coupon> dbCouponList = couponDao.findAllByUserIdAndStatus(userId, CouponStatus.of(status));
+            // 过滤器中没有的用户一定没有优惠券, 不需要查询数据库, 也不写入缓存
+            if (!userCouponFilter.mightHaveCoupons(userId)) {
+                log.debug("user never acquired coupon: {}, {}", userId, status);
+                return Collections.emptyList();
+            }
+            //同一个用户、状态同时只有一个请求从数据库加载, 其他请求等待加载的结果
+            preTarget = singleFlight.execute(
+                    userId + "_" + status,
+                    () -> loadCouponsToCache(userId, status),
+                    () -> {
+                        List<Coupon> cachedList = redisService.getCachedCoupons(userId, status);
+                        return CollectionUtils.isEmpty(cachedList) ? null : cachedList;
+                    },
+                    Coupon::copyAll
+            );
 
             // 如果数据库中没有记录，直接返回就可以，Cache中已经加入了一张无效的优惠券
-            if (CollectionUtils.isEmpty(dbCouponList)) {
+            if (CollectionUtils.isEmpty(preTarget)) {
                 log.debug("current user donot have coupon: {}, {}", userId, status);
-                return dbCouponList;
+                return preTarget;
             }
-
-            //填充dbCouponList的templateSDK字段
-            Map<Integer, CouponTemplateSDK> id2SDK = templateClient.findIds2SDK(
-                    dbCouponList.stream().map(Coupon::getTemplateId).collect(Collectors.toList())
-            ).getData();
-
-            dbCouponList.forEach(coupon -> coupon.setTemplateSDK(id2SDK.get(coupon.getTemplateId())));
-            //数据库中存在记录
-            preTarget = dbCouponList;
-            //将记录写入Cache
-            redisService.addCouponToCache(userId, preTarget, status);
-
         }
         //将无效优惠券剔除
         preTarget = preTarget.stream().filter(coupon -> coupon.getId() != -1).collect(Collectors.toList());
         //如果当前获取的是可用的优惠券，还需要做对已过期的优惠券的延迟处理
         if (CouponStatus.of(status) == CouponStatus.USABLE) {
+            // 开启过期时间索引时, 只需要范围查询到期的优惠券并剔除, 由定时任务移动到已过期
+            Set<Integer> expiredIds = redisService.findExpiredCouponIds(userId);
+            if (null != expiredIds) {
+                return expiredIds.isEmpty() ? preTarget : preTarget.stream()
+                        .filter(coupon -> !expiredIds.contains(coupon.getId()))
+                        .collect(Collectors.toList());
+            }
             CouponClassify classify = CouponClassify.classify(preTarget);
             //如果已过期状态不为空，需要做延迟处理
             if (CollectionUtils.isNotEmpty(classify.getExpired())) {
                 log.info("Add Expired Coupons To Cache From FindCouponsByStatus: {}, {}", userId, status);
                 redisService.addCouponToCache(userId, classify.getExpired(), CouponStatus.EXPIRED.getCode());
-                //发送到Kafka中做异步处理
-                kafkaTemplate.send(Constant.TOPIC,
+                //发送到Kafka中做异步处理, 与新领取优惠券的写入使用同一个 topic 和 key, 保证在写入之后更新
+                kafkaTemplate.send(Constant.INSERT_TOPIC, userId.toString(),
                         JSON.toJSONString(
                                 new CouponKafkaMessage(
                                         CouponStatus.EXPIRED.getCode(),
@@ -133,6 +230,114 @@ public class UserServiceImpl implements IUserService {
         return preTarget;
     }
 
+    /**
+     * 根据用户ID和状态分页查询优惠券记录
+     * 用户缓存存在时用 HSCAN 游标扫描缓存, 否则按主键分页查询数据库; 分页查询不会写入缓存
+     * 缓存在扫描过程中过期时从数据库重新开始, 调用方按主键去重
+     *
+     * @param userId
+     * @param status
+     * @param cursor 上一页返回的游标, 第一页为 null
+     * @param size 每页的个数
+     * @return
+     * @throws CouponException
+     */
+    @Override
+    public CouponPage findCouponsByStatus(Long userId, Integer status, String cursor, Integer size)
+            throws CouponException {
+        int pageSize = null == size || size <= 0 ? maxPageSize : Math.min(size, maxPageSize);
+
+        CouponPage page = null;
+        Integer lastId = 0;
+        if (null == cursor || cursor.startsWith(CACHE_CURSOR_PREFIX)) {
+            String scanCursor = null == cursor ? "0" : cursor.substring(CACHE_CURSOR_PREFIX.length());
+            page = redisService.scanCachedCoupons(userId, status, scanCursor, pageSize);
+            if (null != page && null != page.getCursor()) {
+                page.setCursor(CACHE_CURSOR_PREFIX + page.getCursor());
+            }
+        } else if (cursor.startsWith(DB_CURSOR_PREFIX)) {
+            try {
+                lastId = Integer.valueOf(cursor.substring(DB_CURSOR_PREFIX.length()));
+            } catch (NumberFormatException ex) {
+                throw new CouponException("Invalid Coupon Page Cursor!");
+            }
+        } else {
+            throw new CouponException("Invalid Coupon Page Cursor!");
+        }
+
+        if (null == page) {
+            // 缓存不存在时才使用过滤器, 过滤器中没有的用户一定没有优惠券, 不需要查询数据库
+            if (!userCouponFilter.mightHaveCoupons(userId)) {
+                return new CouponPage(Collections.emptyList(), null);
+            }
+            List<Coupon> dbCouponList = couponDao.findByUserIdAndStatusAndIdGreaterThanOrderByIdAsc(
+                    userId, CouponStatus.of(status), lastId, PageRequest.of(0, pageSize));
+            fillTemplateSDK(dbCouponList);
+            page = new CouponPage(dbCouponList, dbCouponList.size() < pageSize ? null
+                    : DB_CURSOR_PREFIX + dbCouponList.get(dbCouponList.size() - 1).getId());
+        }
+
+        // 可用的优惠券只剔除已经到期的, 移动到已过期由不分页的查询或定时任务处理
+        if (CouponStatus.of(status) == CouponStatus.USABLE && CollectionUtils.isNotEmpty(page.getCoupons())) {
+            Set<Integer> expiredIds = redisService.findExpiredCouponIds(userId);
+            long currentTime = System.currentTimeMillis();
+            page.setCoupons(page.getCoupons().stream()
+                    .filter(coupon -> null != expiredIds ? !expiredIds.contains(coupon.getId())
+                            : null == coupon.getTemplateSDK() || CouponClassify.expirationOf(
+                            coupon.getTemplateSDK(), coupon.getAssignTime()) > currentTime)
+                    .collect(Collectors.toList()));
+        }
+        return page;
+    }
+
+    /**
+     * 从数据库加载用户优惠券, 填充模版信息并写入缓存
+     *
+     * @param userId
+     * @param status
+     * @return 数据库中的优惠券
+     * @throws CouponException
+     */
+    private List<Coupon> loadCouponsToCache(Long userId, Integer status) throws CouponException {
+        log.debug("coupon cache is empty, get coupon from db: {}, {}", userId, status);
+        List<Coupon> dbCouponList = couponDao.findAllByUserIdAndStatus(userId, CouponStatus.of(status));
+
+        // 开启用户过滤器时读取缓存不会加入无效的优惠券, 只为可能领取过优惠券的用户在这里加入
+        if (userCouponFilter.isEnabled()) {
+            redisService.saveEmptyCouponListToCache(userId, Collections.singletonList(status));
+        }
+        if (CollectionUtils.isEmpty(dbCouponList)) {
+            return dbCouponList;
+        }
+
+        //填充dbCouponList的templateSDK字段
+        fillTemplateSDK(dbCouponList);
+
+        //将记录写入Cache
+        redisService.addCouponToCache(userId, dbCouponList, status);
+        return dbCouponList;
+    }
+
+    /**
+     * 填充从数据库中读取的优惠券的模版信息
+     *
+     * @param coupons
+     * @throws CouponException 模版服务不可用并且没有过期的模版信息, 不返回没有模版信息的优惠券
+     */
+    private void fillTemplateSDK(List<Coupon> coupons) throws CouponException {
+        Map<Integer, CouponTemplateSDK> id2SDK = templateCache.getAll(
+                coupons.stream().map(Coupon::getTemplateId).collect(Collectors.toSet())
+        );
+        for (Coupon coupon : coupons) {
+            CouponTemplateSDK template = id2SDK.get(coupon.getTemplateId());
+            if (null == template) {
+                log.error("Cannot Acquire Template From TemplateClient: {}", coupon.getTemplateId());
+                throw new CouponException("Cannot Acquire Template From TemplateClient");
+            }
+            coupon.setTemplateSDK(template);
+        }
+    }
+
     /**
      * 根据用户 id 查找当前可以领取的优惠券模版
      *
@@ -143,9 +348,14 @@ public class UserServiceImpl implements IUserService {
     @Override
     public List<CouponTemplateSDK> findAvailableTemplate(Long userId) throws CouponException {
         long curTime = new Date().getTime();
-        List<CouponTemplateSDK> sdkList = templateClient.findAllUsableTemplate().getData();
-
-        log.debug("Find All Template(From TemplateClient) Count: {}", sdkList.size());
+        List<CouponTemplateSDK> sdkList;
+        if (templateSnapshot.isReady()) {
+            sdkList = new ArrayList<>(templateSnapshot.findAll());
+            log.debug("Find All Template(From TemplateSnapshot) Count: {}", sdkList.size());
+        } else {
+            sdkList = templateClient.findAllUsableTemplate().getData();
+            log.debug("Find All Template(From TemplateClient) Count: {}", sdkList.size());
+        }
         //过滤过期的优惠券模版
         sdkList = sdkList.stream().filter(sdk ->
                 sdk.getRule().getExpiration().getDeadline() > curTime
@@ -163,19 +373,23 @@ public class UserServiceImpl implements IUserService {
         sdkList.forEach(sdk -> limit2Template.put(sdk.getId(), Pair.of(sdk.getRule().getLimitation(), sdk)));
 
         List<CouponTemplateSDK> result = new ArrayList<>(limit2Template.size());
-        List<Coupon> userUsableCouponList = findCouponsByStatus(userId, CouponStatus.USABLE.getCode());
+        Map<Integer, Integer> templateCounts = redisService.getTemplateCounts(userId);
+        if (null == templateCounts) {
+            // 用户可用优惠券缓存不存在, 从数据库加载到缓存时会重建计数
+            findCouponsByStatus(userId, CouponStatus.USABLE.getCode());
+            templateCounts = redisService.getTemplateCounts(userId);
+        }
+        Map<Integer, Integer> templateId2Count = null == templateCounts ? Collections.emptyMap() : templateCounts;
 
-        log.debug("Current User Has Usable Coupons: {}, {}", userId, userUsableCouponList);
+        log.debug("Current User Has Usable Coupons: {}, {}", userId, templateId2Count);
 
-        Map<Integer, List<Coupon>> templateId2Coupons = userUsableCouponList.stream().
-                collect(Collectors.groupingBy(Coupon::getTemplateId));
         //根据template 的rule 判断是否可以领取优惠券模版
         limit2Template.forEach((k, v) -> {
 
             int limitation = v.getLeft();
             CouponTemplateSDK templateSDK = v.getRight();
 
-            if (templateId2Coupons.containsKey(k) && templateId2Coupons.get(k).size() >= limitation) {
+            if (templateId2Count.getOrDefault(k, 0) >= limitation) {
                 return;
             }
             result.add(templateSDK);
@@ -185,11 +399,11 @@ public class UserServiceImpl implements IUserService {
 
     /**
      * 用户领取优惠券
-     * 1、从TemplateClient中拿到相对应的优惠券，并检查是否过期
-     * 2、根据limitation判断用户是否可以领取
-     * 3、save to db
-     * 4、填充CouponTemplateSDK
-     * 5、save to cache
+     * 0、模版已经售罄时直接拒绝, 不访问模版服务和 redis
+     * 1、从TemplateClient中拿到相对应的优惠券，并检查是否过期; 模版存在时按模版排队, 队列满了直接拒绝
+     * 2、分配优惠券主键，填充CouponTemplateSDK
+     * 3、在一个 redis 脚本中完成：根据limitation判断用户是否可以领取、获取优惠券码、save to cache
+     * 4、save to db，开启 write-behind 时发送到 Kafka 由消费者批量写入, 发送失败时直接写入数据库
      *
      * @param request
      * @return
@@ -198,52 +412,110 @@ public class UserServiceImpl implements IUserService {
     @Override
     public Coupon acquireTemplate(AcquireTemplateRequest request) throws CouponException {
 
-        //根据id获取优惠券模版
-        Map<Integer, CouponTemplateSDK> id2Template = templateClient.findIds2SDK(
+        if (soldOutRegistry.isSoldOut(request.getTemplateSDK().getId())) {
+            log.debug("Template Is Sold Out: {}", request.getTemplateSDK().getId());
+            throw new CouponException("Cannot Acquire Coupon Code!");
+        }
+        //根据id获取优惠券模版, 可用的模版从本地快照中获取
+        Map<Integer, CouponTemplateSDK> id2Template = templateCache.getAll(
                 Collections.singletonList(request.getTemplateSDK().getId())
-        ).getData();
+        );
 
         //优惠券模版是需要存在的
         if (id2Template.size() <= 0) {
             log.error("Cannot Acquire Template From TemplateClient: {}", request.getTemplateSDK().getId());
             throw new CouponException("Cannot Acquire Template From TemplateClient");
         }
-        //用户是否可以领取这张优惠券
-        List<Coupon> userUsableCoupons = findCouponsByStatus(request.getUserId(), CouponStatus.USABLE.getCode());
-        Map<Integer, List<Coupon>> templateId2Coupons = userUsableCoupons.stream()
-                .collect(Collectors.groupingBy(Coupon::getTemplateId));
-        if (templateId2Coupons.containsKey(request.getTemplateSDK().getId())
-                && templateId2Coupons.get(request.getTemplateSDK().getId()).size()
-                >= request.getTemplateSDK().getRule().getLimitation()) {
-            log.error("Execed Template Assign Limitation: {}", request.getTemplateSDK().getId());
-            throw new CouponException("Execed Template Assign Limitation!");
-        }
+        //校验过模版之后再排队, 不存在的模版id不会创建排队通道
+        templateAdmission.admit(request.getTemplateSDK().getId());
 
-        //尝试获取优惠券码
-        String couponCode = redisService.tryToAcquireCouponCodeFromCache(request.getTemplateSDK().getId());
-        if (StringUtils.isEmpty(couponCode)) {
-            log.error("Cannot Acquire Coupon Code: {}", request.getTemplateSDK().getId());
-            throw new CouponException("Cannot Acquire Coupon Code!");
-        }
         Coupon newCoupon = new Coupon(
                 request.getTemplateSDK().getId(),
                 request.getUserId(),
-                couponCode,
+                null,
                 CouponStatus.USABLE
         );
-        newCoupon = couponDao.save(newCoupon);
-
+        newCoupon.setId(couponIdGenerator.nextId());
         //填充coupon对象的CouponTemplateSDK，一定要在放入缓存之前去填充
         newCoupon.setTemplateSDK(request.getTemplateSDK());
-        //放入缓存
-        redisService.addCouponToCache(
-                request.getUserId(),
-                Collections.singletonList(newCoupon),
-                CouponStatus.USABLE.getCode()
-        );
+
+        //校验领取限制、获取优惠券码并放入缓存
+        Integer limitation = request.getTemplateSDK().getRule().getLimitation();
+        AcquireStatus acquireStatus = redisService.acquireCouponToCache(newCoupon, limitation);
+        if (acquireStatus == AcquireStatus.CACHE_MISS) {
+            //用户可用优惠券缓存不存在，先从数据库中加载到缓存再重试
+            findCouponsByStatus(request.getUserId(), CouponStatus.USABLE.getCode());
+            if (userCouponFilter.isEnabled()) {
+                //第一次领取优惠券的用户没有写入缓存, 创建空的可用优惠券缓存
+                redisService.saveEmptyCouponListToCache(request.getUserId(),
+                        Collections.singletonList(CouponStatus.USABLE.getCode()));
+            }
+            acquireStatus = redisService.acquireCouponToCache(newCoupon, limitation);
+        }
+
+        switch (acquireStatus) {
+            case SUCCESS:
+                break;
+            case SUCCESS_UNCACHED:
+                //缓存已经失效, 下次查询从数据库加载, 需要同步写入数据库才能被查询到
+                saveAcquiredCoupon(newCoupon, false);
+                return newCoupon;
+            case LIMITED:
+                log.error("Execed Template Assign Limitation: {}", request.getTemplateSDK().getId());
+                throw new CouponException("Execed Template Assign Limitation!");
+            case NO_CODE:
+                log.error("Cannot Acquire Coupon Code: {}", request.getTemplateSDK().getId());
+                throw new CouponException("Cannot Acquire Coupon Code!");
+            default:
+                log.error("Cannot Acquire Coupon: {}, {}", request.getUserId(), acquireStatus);
+                throw new CouponException("Cannot Acquire Coupon!");
+        }
+
+        if (!writeBehind || !sendCouponInsertMessage(newCoupon)) {
+            saveAcquiredCoupon(newCoupon, true);
+        }
         return newCoupon;
     }
 
+    /**
+     * 同步写入领取的优惠券, 失败时撤销缓存并归还优惠券码
+     *
+     * @param coupon
+     * @param cached 优惠券是否已经写入缓存
+     * @throws CouponException 写入数据库失败
+     */
+    private void saveAcquiredCoupon(Coupon coupon, boolean cached) throws CouponException {
+        try {
+            couponDao.save(coupon);
+        } catch (RuntimeException ex) {
+            log.error("Save Acquired Coupon Error: {}, {}", coupon.getId(), ex.getMessage());
+            redisService.rollbackAcquire(coupon, cached);
+            throw new CouponException("Cannot Acquire Coupon!");
+        }
+    }
+
+    /**
+     * 发送新领取优惠券的 kafka 消息, 等待 kafka 确认
+     *
+     * @param coupon
+     * @return 发送成功返回 true, 失败时由调用方直接写入数据库
+     */
+    private boolean sendCouponInsertMessage(Coupon coupon) {
+        String message = JSON.toJSONString(CouponInsertMessage.of(coupon));
+        try {
+            kafkaTemplate.send(Constant.INSERT_TOPIC, coupon.getUserId().toString(), message)
+                    .get(writeBehindTimeoutMillis, TimeUnit.MILLISECONDS);
+            log.debug("Send CouponInsertMessage: {}", coupon.getId());
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.error("Send CouponInsertMessage Interrupted: {}", message);
+        } catch (ExecutionException | TimeoutException ex) {
+            log.error("Send CouponInsertMessage Error: {}, {}", message, ex.getMessage());
+        }
+        return false;
+    }
+
     /**
      * 结算（核销）优惠券
      *
@@ -47,17 +47,10 @@ public class CouponClassify {
         List<Coupon> used = new ArrayList<>(couponList.size());
         List<Coupon> expired = new ArrayList<>(couponList.size());
 
+        long currentTime = new Date().getTime();
         couponList.forEach(coupon -> {
             //判断优惠券是否过期
-            boolean isTimeExpire;
-            long currentTime = new Date().getTime();
-
-            if (coupon.getTemplateSDK().getRule().getExpiration().getPeriod().equals(PeriodType.REGULAR.getCode())) {
-                isTimeExpire = coupon.getTemplateSDK().getRule().getExpiration().getDeadline() <= currentTime;
-            } else {
-                isTimeExpire = DateUtils.addDays(coupon.getAssignTime(),
-                        coupon.getTemplateSDK().getRule().getExpiration().getGap()).getTime() <= currentTime;
-            }
+            boolean isTimeExpire = expirationOf(coupon.getTemplateSDK(), coupon.getAssignTime()) <= currentTime;
 
             if (coupon.getStatus() == CouponStatus.USED) {
                 used.add(coupon);
@@ -70,4 +63,19 @@ public class CouponClassify {
 
         return new CouponClassify(usable, used, expired);
     }
+
+    /**
+     * 计算优惠券的过期时间
+     *
+     * @param template 优惠券模版
+     * @param assignTime 领取时间
+     * @return 过期时间的时间戳
+     */
+    public static long expirationOf(CouponTemplateSDK template, Date assignTime) {
+        TemplateRule.Expiration expiration = template.getRule().getExpiration();
+        if (expiration.getPeriod().equals(PeriodType.REGULAR.getCode())) {
+            return expiration.getDeadline();
+        }
+        return DateUtils.addDays(assignTime, expiration.getGap()).getTime();
+    }
 }
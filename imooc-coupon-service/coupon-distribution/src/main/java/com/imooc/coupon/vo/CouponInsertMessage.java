@@ -0,0 +1,60 @@
+package com.imooc.coupon.vo;
+
+import com.imooc.coupon.entity.Coupon;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+/**
+ * 新领取优惠券的Kafka消息对象定义, 对应 coupon 表的一行
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:00
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CouponInsertMessage {
+    /**
+     * Coupon主键
+     */
+    private Integer id;
+
+    /**
+     * 优惠券模版主键
+     */
+    private Integer templateId;
+
+    /**
+     * 领取用户
+     */
+    private Long userId;
+
+    /**
+     * 优惠券码
+     */
+    private String couponCode;
+
+    /**
+     * 领取时间
+     */
+    private Date assignTime;
+
+    /**
+     * 优惠券状态
+     */
+    private Integer status;
+
+    public static CouponInsertMessage of(Coupon coupon) {
+        return new CouponInsertMessage(
+                coupon.getId(),
+                coupon.getTemplateId(),
+                coupon.getUserId(),
+                coupon.getCouponCode(),
+                coupon.getAssignTime(),
+                coupon.getStatus().getCode()
+        );
+    }
+}
@@ -0,0 +1,30 @@
+package com.imooc.coupon.vo;
+
+import com.imooc.coupon.entity.Coupon;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 分页查询的用户优惠券
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:25
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CouponPage {
+
+    /**
+     * 当前页的优惠券
+     */
+    private List<Coupon> coupons;
+
+    /**
+     * 下一页的游标, 为 null 时表示已经没有数据
+     */
+    private String cursor;
+}
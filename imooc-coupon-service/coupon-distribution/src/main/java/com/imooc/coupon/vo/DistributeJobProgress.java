@@ -0,0 +1,52 @@
+package com.imooc.coupon.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批量分发优惠券任务进度
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:05
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DistributeJobProgress {
+
+    /**
+     * 任务id
+     */
+    private String jobId;
+
+    /**
+     * 优惠券模版主键
+     */
+    private Integer templateId;
+
+    /**
+     * 用户id文件名
+     */
+    private String userFile;
+
+    /**
+     * 已经处理的用户id文件行数
+     */
+    private Long offset;
+
+    /**
+     * 已经分发的优惠券个数
+     */
+    private Long distributed;
+
+    /**
+     * 任务状态: RUNNING, DONE, SOLD_OUT, FAILED
+     */
+    private String status;
+
+    /**
+     * 任务失败的原因
+     */
+    private String error;
+}
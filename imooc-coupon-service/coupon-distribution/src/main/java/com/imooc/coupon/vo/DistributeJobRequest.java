@@ -0,0 +1,42 @@
+package com.imooc.coupon.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 批量分发优惠券任务请求
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:05
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DistributeJobRequest {
+
+    /**
+     * 任务id, 为空时自动生成; 使用已有的任务id提交时从上次的进度继续分发
+     */
+    private String jobId;
+
+    /**
+     * 优惠券模版主键
+     */
+    private Integer templateId;
+
+    /**
+     * 用户id文件名, 文件放在导入目录(coupon.distribute.import-dir)下, 每行一个用户id
+     */
+    private String userFile;
+
+    /**
+     * 校验请求的有效性
+     *
+     * @return
+     */
+    public boolean validate() {
+        return null != templateId && templateId > 0 && StringUtils.isNotEmpty(userFile);
+    }
+}
@@ -0,0 +1,32 @@
+-- 把一个用户的优惠券写入可用优惠券缓存, 只写入已经存在的缓存
+-- 缓存不存在的用户下次查询时会从数据库中加载, 避免缓存中只有部分优惠券
+-- 只访问同一个用户的 key, redis 集群下这些 key 通过 {用户id} 分配到同一个 slot
+-- KEYS[1]: 用户可用优惠券缓存; 单 hash 布局时是用户的所有优惠券
+-- KEYS[2]: 用户每个模版的可用优惠券个数
+-- ARGV[1]: 缓存过期时间(秒)
+-- ARGV[2]: 单 hash 布局时表示可用优惠券已经加载的 field, 为空时检查 key 是否存在
+-- ARGV[3]: 1: 新写入的优惠券在计数存在时加一; 0: 不修改计数(领取时已经预占)
+-- ARGV[3i + 1], ARGV[3i + 2], ARGV[3i + 3]: 第 i 张优惠券的 field, value 和模版id
+-- 返回写入的优惠券个数, 缓存不存在时为 0
+local present
+if ARGV[2] == '' then
+    present = redis.call('EXISTS', KEYS[1]) == 1
+else
+    present = redis.call('HEXISTS', KEYS[1], ARGV[2]) == 1
+end
+if not present then
+    return 0
+end
+
+local counted = ARGV[3] == '1' and redis.call('EXISTS', KEYS[2]) == 1
+local count = 0
+for i = 4, #ARGV, 3 do
+    local added = redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])
+    -- 重复写入同一张优惠券时不重复计数
+    if added == 1 and counted then
+        redis.call('HINCRBY', KEYS[2], ARGV[i + 2], 1)
+    end
+    count = count + 1
+end
+redis.call('EXPIRE', KEYS[1], ARGV[1])
+return count
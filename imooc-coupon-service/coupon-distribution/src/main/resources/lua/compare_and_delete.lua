@@ -0,0 +1,8 @@
+-- 值等于期望值时才删除 key, 释放租约(锁)时不会删除其他节点重新获取的租约
+-- KEYS[1]: 租约 key
+-- ARGV[1]: 当前节点的标识
+-- 返回删除的个数
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('DEL', KEYS[1])
+end
+return 0
@@ -0,0 +1,9 @@
+-- 值等于期望值时才续期 key, 续期时不会延长其他节点重新获取的租约(锁)
+-- KEYS[1]: 租约 key
+-- ARGV[1]: 当前节点的标识
+-- ARGV[2]: 续期时间(秒)
+-- 返回 1: 续期成功; 0: 租约已经不属于当前节点
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('EXPIRE', KEYS[1], ARGV[2])
+end
+return 0
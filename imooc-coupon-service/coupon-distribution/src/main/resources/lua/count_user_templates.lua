@@ -0,0 +1,44 @@
+-- 查询用户每个模版的可用优惠券个数, 不存在时从用户优惠券缓存中重建
+-- 只访问同一个用户的 key, redis 集群下这些 key 通过 {用户id} 分配到同一个 slot
+-- KEYS[1]: 用户可用优惠券缓存; 单 hash 布局时是用户的所有优惠券
+-- KEYS[2]: 用户每个模版的可用优惠券个数
+-- ARGV[1]: 单 hash 布局时表示可用优惠券已经加载的 field, 为空时检查 key 是否存在
+-- ARGV[2]: 缓存过期时间(秒)
+-- 返回: 用户优惠券缓存不存在时为 nil; 否则是 模版id, 个数 对
+if ARGV[1] == '' then
+    if redis.call('EXISTS', KEYS[1]) == 0 then
+        return false
+    end
+elseif redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then
+    return false
+end
+if redis.call('EXISTS', KEYS[2]) == 1 then
+    return redis.call('HGETALL', KEYS[2])
+end
+
+-- 缓存的 value 可能是 json('{' 开头) 或者 BinaryCouponCodec 的二进制格式
+-- 返回: id, templateId, 是否是可用状态
+local function decode(value)
+    if string.byte(value, 1) == 123 then
+        local coupon = cjson.decode(value)
+        return tonumber(coupon['id']), tonumber(coupon['templateId']), coupon['status'] == 'USABLE'
+    end
+    local id, couponTemplateId = struct.unpack('>i4i4', value, 3)
+    return id, couponTemplateId, string.byte(value, 19) == 1
+end
+
+local counts = {}
+for _, value in ipairs(redis.call('HVALS', KEYS[1])) do
+    local id, templateId, usable = decode(value)
+    if id ~= -1 and usable then
+        counts[templateId] = (counts[templateId] or 0) + 1
+    end
+end
+local result = {}
+for templateId, n in pairs(counts) do
+    redis.call('HSET', KEYS[2], templateId, n)
+    result[#result + 1] = tostring(templateId)
+    result[#result + 1] = tostring(n)
+end
+redis.call('EXPIRE', KEYS[2], ARGV[2])
+return result
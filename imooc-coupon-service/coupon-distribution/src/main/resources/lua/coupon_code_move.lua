@@ -0,0 +1,12 @@
+-- 从优惠券码列表中一次移动多个优惠券码到另一个列表的末尾, 和 LMOVE 一样弹出和写入是原子的
+-- 两个 key 需要在同一个 slot, 目标列表使用源列表的 key 作为 hash tag
+-- KEYS[1]: 优惠券码列表
+-- KEYS[2]: 目标列表
+-- ARGV[1]: 最多移动的个数
+-- 返回移动的优惠券码, 列表为空时返回空列表
+local codes = redis.call('LRANGE', KEYS[1], 0, tonumber(ARGV[1]) - 1)
+if #codes > 0 then
+    redis.call('LTRIM', KEYS[1], #codes, -1)
+    redis.call('RPUSH', KEYS[2], unpack(codes))
+end
+return codes
@@ -0,0 +1,9 @@
+-- 从优惠券码列表中一次弹出多个优惠券码
+-- KEYS[1]: 优惠券码列表
+-- ARGV[1]: 最多弹出的个数
+-- 返回弹出的优惠券码, 列表为空时返回空列表
+local codes = redis.call('LRANGE', KEYS[1], 0, tonumber(ARGV[1]) - 1)
+if #codes > 0 then
+    redis.call('LTRIM', KEYS[1], #codes, -1)
+end
+return codes
@@ -0,0 +1,64 @@
+-- 把用户已经到期的可用优惠券移动到已过期, 并从过期时间索引中删除, 一次往返原子完成
+-- 只访问同一个用户的 key, redis 集群下这些 key 通过 {用户id} 分配到同一个 slot, 全局索引由调用方更新
+-- KEYS[1]: 用户可用优惠券缓存; 单 hash 布局时是用户的所有优惠券
+-- KEYS[2]: 用户已过期优惠券缓存; 单 hash 布局时和 KEYS[1] 相同
+-- KEYS[3]: 用户的过期时间索引
+-- KEYS[4]: 用户每个模版的可用优惠券个数, 存在时减一
+-- ARGV[1]: 当前时间(毫秒)
+-- ARGV[2]: 缓存过期时间(秒)
+-- ARGV[3]: 最多处理的优惠券个数
+-- 返回: 第一个元素是用户索引中剩余的最早过期时间(没有时为空), 之后是到期的优惠券id
+-- 缓存中没有的优惠券也会返回, 调用方需要更新数据库
+local unified = KEYS[1] == KEYS[2]
+
+-- 缓存的 value 可能是 json('{' 开头) 或者 BinaryCouponCodec 的二进制格式(第 19 个字节是状态)
+-- 返回修改为已过期状态的 value 和模版id, 不是可用状态时返回 nil
+local function toExpired(value)
+    if string.byte(value, 1) == 123 then
+        if string.find(value, '"status":"USABLE"', 1, true) then
+            local expired = string.gsub(value, '"status":"USABLE"', '"status":"EXPIRED"')
+            return expired, cjson.decode(value)['templateId']
+        end
+        return nil
+    end
+    if string.byte(value, 19) == 1 then
+        local _, templateId = struct.unpack('>i4i4', value, 3)
+        return string.sub(value, 1, 18) .. string.char(3) .. string.sub(value, 20), templateId
+    end
+    return nil
+end
+
+local ids = redis.call('ZRANGEBYSCORE', KEYS[3], '-inf', ARGV[1], 'LIMIT', 0, ARGV[3])
+local counted = redis.call('EXISTS', KEYS[4]) == 1
+local moved = 0
+for _, id in ipairs(ids) do
+    local value = redis.call('HGET', KEYS[1], id)
+    local expired, templateId
+    if value then
+        expired, templateId = toExpired(value)
+    end
+    if expired then
+        if not unified then
+            redis.call('HDEL', KEYS[1], id)
+        end
+        redis.call('HSET', KEYS[2], id, expired)
+        if counted and redis.call('HINCRBY', KEYS[4], templateId, -1) <= 0 then
+            redis.call('HDEL', KEYS[4], templateId)
+        end
+        moved = moved + 1
+    end
+end
+if #ids > 0 then
+    redis.call('ZREM', KEYS[3], unpack(ids))
+end
+if moved > 0 then
+    redis.call('EXPIRE', KEYS[1], ARGV[2])
+    redis.call('EXPIRE', KEYS[2], ARGV[2])
+end
+
+local first = redis.call('ZRANGE', KEYS[3], 0, 0, 'WITHSCORES')
+local result = {#first > 0 and first[2] or ''}
+for _, id in ipairs(ids) do
+    result[#result + 1] = id
+end
+return result
@@ -0,0 +1,14 @@
+-- 更新所有用户最早过期时间的索引, 只会把用户的时间提前
+-- 用户自己的过期时间索引由调用方先写入, 这里只访问全局索引一个 key, redis 集群下没有跨 slot 的访问
+-- KEYS[1]: 所有用户最早过期时间的索引, member 是用户id
+-- ARGV: 依次是每个用户的 用户id, 新写入的最早过期时间
+-- 返回更新的用户个数
+local updated = 0
+for i = 1, #ARGV, 2 do
+    local current = redis.call('ZSCORE', KEYS[1], ARGV[i])
+    if not current or tonumber(current) > tonumber(ARGV[i + 1]) then
+        redis.call('ZADD', KEYS[1], ARGV[i + 1], ARGV[i])
+        updated = updated + 1
+    end
+end
+return updated
@@ -0,0 +1,42 @@
+-- 把从数据库加载的可用优惠券写入缓存, 并在计数不存在时从缓存重建每个模版的可用优惠券个数
+-- 计数已经存在时保留, 其中可能有正在进行的领取预占的名额, 或者已经写入缓存但还没有写入数据库的优惠券
+-- 只访问同一个用户的 key, redis 集群下这些 key 通过 {用户id} 分配到同一个 slot
+-- KEYS[1]: 用户可用优惠券缓存; 单 hash 布局时是用户的所有优惠券
+-- KEYS[2]: 用户每个模版的可用优惠券个数
+-- ARGV[1]: 缓存过期时间(秒)
+-- ARGV[2i], ARGV[2i + 1]: 第 i 张优惠券的 field 和 value
+-- 返回写入的优惠券个数
+
+-- 缓存的 value 可能是 json('{' 开头) 或者 BinaryCouponCodec 的二进制格式
+-- 返回: id, templateId, 是否是可用状态
+local function decode(value)
+    if string.byte(value, 1) == 123 then
+        local coupon = cjson.decode(value)
+        return tonumber(coupon['id']), tonumber(coupon['templateId']), coupon['status'] == 'USABLE'
+    end
+    local id, couponTemplateId = struct.unpack('>i4i4', value, 3)
+    return id, couponTemplateId, string.byte(value, 19) == 1
+end
+
+local count = 0
+for i = 2, #ARGV, 2 do
+    redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])
+    count = count + 1
+end
+redis.call('EXPIRE', KEYS[1], ARGV[1])
+
+if redis.call('EXISTS', KEYS[2]) == 0 then
+    -- 缓存中已有的优惠券(write-behind 还没有写入数据库的)和加载的优惠券一起计数
+    local counts = {}
+    for _, value in ipairs(redis.call('HVALS', KEYS[1])) do
+        local id, couponTemplateId, usable = decode(value)
+        if id ~= -1 and usable then
+            counts[couponTemplateId] = (counts[couponTemplateId] or 0) + 1
+        end
+    end
+    for couponTemplateId, n in pairs(counts) do
+        redis.call('HSET', KEYS[2], couponTemplateId, n)
+    end
+    redis.call('EXPIRE', KEYS[2], ARGV[1])
+end
+return count
@@ -0,0 +1,12 @@
+-- 归还领取时预占的名额, 计数已经过期时不做任何修改, 避免创建没有过期时间的计数
+-- KEYS[1]: 用户每个模版的可用优惠券个数
+-- ARGV[1]: 优惠券模版id
+-- 返回归还之后的个数, 计数不存在时返回 -1
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return -1
+end
+local count = redis.call('HINCRBY', KEYS[1], ARGV[1], -1)
+if count <= 0 then
+    redis.call('HDEL', KEYS[1], ARGV[1])
+end
+return count
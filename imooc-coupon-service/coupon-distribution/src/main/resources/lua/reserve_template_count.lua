@@ -0,0 +1,53 @@
+-- 用户领取优惠券第一步: 校验领取限制并预占一个名额, 之后再获取优惠券码并写入缓存
+-- 只访问同一个用户的 key, redis 集群下这些 key 通过 {用户id} 分配到同一个 slot
+-- KEYS[1]: 用户可用优惠券缓存; 单 hash 布局时是用户的所有优惠券
+-- KEYS[2]: 用户每个模版的可用优惠券个数, 不存在时从 KEYS[1] 中重建
+-- ARGV[1]: 优惠券模版id
+-- ARGV[2]: 模版的领取限制
+-- ARGV[3]: 单 hash 布局时表示可用优惠券已经加载的 field, 为空时检查 key 是否存在
+-- ARGV[4]: 缓存过期时间(秒)
+-- 返回: OK: 已经预占; MISS: 用户缓存不存在; LIMIT: 超过领取限制
+if ARGV[3] == '' then
+    if redis.call('EXISTS', KEYS[1]) == 0 then
+        return 'MISS'
+    end
+elseif redis.call('HEXISTS', KEYS[1], ARGV[3]) == 0 then
+    return 'MISS'
+end
+
+-- 缓存的 value 可能是 json('{' 开头) 或者 BinaryCouponCodec 的二进制格式
+-- 返回: id, templateId, 是否是可用状态
+local function decode(value)
+    if string.byte(value, 1) == 123 then
+        local coupon = cjson.decode(value)
+        return tonumber(coupon['id']), tonumber(coupon['templateId']), coupon['status'] == 'USABLE'
+    end
+    local id, couponTemplateId = struct.unpack('>i4i4', value, 3)
+    return id, couponTemplateId, string.byte(value, 19) == 1
+end
+
+local count
+if redis.call('EXISTS', KEYS[2]) == 1 then
+    count = tonumber(redis.call('HGET', KEYS[2], ARGV[1]) or '0')
+else
+    local counts = {}
+    for _, value in ipairs(redis.call('HVALS', KEYS[1])) do
+        local id, couponTemplateId, usable = decode(value)
+        if id ~= -1 and usable then
+            counts[couponTemplateId] = (counts[couponTemplateId] or 0) + 1
+        end
+    end
+    for couponTemplateId, n in pairs(counts) do
+        redis.call('HSET', KEYS[2], couponTemplateId, n)
+    end
+    -- 不论是否超过领取限制, 重建的计数都需要过期时间
+    redis.call('EXPIRE', KEYS[2], ARGV[4])
+    count = counts[tonumber(ARGV[1])] or 0
+end
+if count >= tonumber(ARGV[2]) then
+    return 'LIMIT'
+end
+
+redis.call('HINCRBY', KEYS[2], ARGV[1], 1)
+redis.call('EXPIRE', KEYS[2], ARGV[4])
+return 'OK'
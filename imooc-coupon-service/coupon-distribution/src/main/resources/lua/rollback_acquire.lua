@@ -0,0 +1,17 @@
+-- 领取的优惠券写入数据库失败时撤销缓存: 删除缓存的优惠券 + 归还预占的名额 + 删除过期时间索引
+-- 只访问同一个用户的 key, redis 集群下这些 key 通过 {用户id} 分配到同一个 slot
+-- KEYS[1]: 用户可用优惠券缓存; 单 hash 布局时是用户的所有优惠券
+-- KEYS[2]: 用户每个模版的可用优惠券个数, 存在时减一
+-- KEYS[3]: 用户的过期时间索引
+-- ARGV[1]: 优惠券id
+-- ARGV[2]: 优惠券模版id
+-- ARGV[3]: 1: 优惠券已经写入缓存, 删除成功时才归还名额; 0: 没有写入缓存, 直接归还名额
+-- 返回删除的缓存个数
+local removed = redis.call('HDEL', KEYS[1], ARGV[1])
+if (removed == 1 or ARGV[3] == '0') and redis.call('EXISTS', KEYS[2]) == 1 then
+    if redis.call('HINCRBY', KEYS[2], ARGV[2], -1) <= 0 then
+        redis.call('HDEL', KEYS[2], ARGV[2])
+    end
+end
+redis.call('ZREM', KEYS[3], ARGV[1])
+return removed
@@ -0,0 +1,20 @@
+-- 用游标分批读取用户优惠券缓存
+-- KEYS[1]: 用户优惠券缓存; 单 hash 布局时是用户的所有优惠券
+-- ARGV[1]: 游标, 从 0 开始
+-- ARGV[2]: 每次扫描的 field 个数
+-- ARGV[3]: 单 hash 布局时表示这个状态的优惠券已经加载的 field, 为空时检查 key 是否存在
+-- 返回: 缓存不存在时为空; 否则第一个元素是下一次的游标(0 表示结束), 之后是 field, value 对
+if ARGV[3] == '' then
+    if redis.call('EXISTS', KEYS[1]) == 0 then
+        return {}
+    end
+elseif redis.call('HEXISTS', KEYS[1], ARGV[3]) == 0 then
+    return {}
+end
+
+local result = redis.call('HSCAN', KEYS[1], ARGV[1], 'COUNT', ARGV[2])
+local page = { result[1] }
+for _, item in ipairs(result[2]) do
+    page[#page + 1] = item
+end
+return page
@@ -0,0 +1,45 @@
+-- 可用的优惠券变为已使用或已过期: 校验优惠券在可用优惠券缓存中 + 移动 + 重置过期时间, 一次往返原子完成
+-- 只访问同一个用户的 key, redis 集群下这些 key 通过 {用户id} 分配到同一个 slot
+-- KEYS[1]: 用户可用优惠券缓存; 单 hash 布局时是用户的所有优惠券
+-- KEYS[2]: 用户已使用/已过期优惠券缓存; 单 hash 布局时和 KEYS[1] 相同
+-- KEYS[3]: 用户的过期时间索引, 移动的优惠券从索引中删除
+-- KEYS[4]: 用户每个模版的可用优惠券个数, 存在时减一
+-- ARGV[1]: 缓存过期时间(秒)
+-- ARGV[3i - 1], ARGV[3i], ARGV[3i + 1]: 第 i 张优惠券的 field, 新状态的 value 和模版id
+-- 返回移动的优惠券个数; -1: 有优惠券不在可用优惠券缓存中, 没有做任何修改
+local unified = KEYS[1] == KEYS[2]
+
+-- 单 hash 布局时需要校验缓存的优惠券是可用状态, value 可能是 json('{' 开头) 或者 BinaryCouponCodec 的二进制格式
+local function usable(value)
+    if string.byte(value, 1) == 123 then
+        return cjson.decode(value)['status'] == 'USABLE'
+    end
+    return string.byte(value, 19) == 1
+end
+
+local fields = {}
+for i = 2, #ARGV, 3 do
+    fields[#fields + 1] = ARGV[i]
+end
+local current = redis.call('HMGET', KEYS[1], unpack(fields))
+for i = 1, #fields do
+    local value = current[i]
+    if not value or (unified and not usable(value)) then
+        return -1
+    end
+end
+
+if not unified then
+    redis.call('HDEL', KEYS[1], unpack(fields))
+    redis.call('EXPIRE', KEYS[1], ARGV[1])
+end
+local counted = redis.call('EXISTS', KEYS[4]) == 1
+for i = 2, #ARGV, 3 do
+    redis.call('HSET', KEYS[2], ARGV[i], ARGV[i + 1])
+    if counted and redis.call('HINCRBY', KEYS[4], ARGV[i + 2], -1) <= 0 then
+        redis.call('HDEL', KEYS[4], ARGV[i + 2])
+    end
+end
+redis.call('EXPIRE', KEYS[2], ARGV[1])
+redis.call('ZREM', KEYS[3], unpack(fields))
+return #fields
@@ -0,0 +1,12 @@
+-- 创建 coupon_id_sequence 数据表, 优惠券主键由 CouponIdGenerator 按段从这里申请
+CREATE TABLE IF NOT EXISTS `imooc_coupon_data`.`coupon_id_sequence` (
+  `name` varchar(64) NOT NULL COMMENT '序列名称',
+  `next_id` bigint(20) NOT NULL DEFAULT '0' COMMENT '已经分配出去的最大主键',
+  PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='优惠券主键序列表';
+
+-- 序列不存在时 CouponIdGenerator 从 coupon 表的最大主键初始化, 也可以手动初始化
+-- INSERT IGNORE INTO coupon_id_sequence (name, next_id) SELECT 'coupon', IFNULL(MAX(id), 0) FROM coupon;
+
+-- 在mysql执行sql文件命令
+-- source xx.sql
@@ -0,0 +1,90 @@
+package com.imooc.coupon.cache;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+
+/**
+ * 优惠券码本地预取缓冲测试, redis 的批量弹出由 mock 返回
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 20:20
+ */
+public class CouponCodeBufferTest {
+
+    private static final Integer TEMPLATE_ID = 1001;
+
+    private static final int BATCH = 4;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final AtomicInteger pops = new AtomicInteger();
+
+    private CouponCodeBuffer codeBuffer;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        StringRedisTemplate redisTemplate = Mockito.mock(StringRedisTemplate.class);
+        Mockito.when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenAnswer(invocation -> {
+            int pop = pops.incrementAndGet();
+            List<String> codes = new ArrayList<>(BATCH);
+            for (int i = 0; i != BATCH; i++) {
+                codes.add("code-" + pop + "-" + i);
+            }
+            return codes;
+        });
+
+        codeBuffer = new CouponCodeBuffer(redisTemplate, Mockito.mock(SoldOutRegistry.class));
+        ReflectionTestUtils.setField(codeBuffer, "enabled", true);
+        ReflectionTestUtils.setField(codeBuffer, "minBatch", BATCH);
+        ReflectionTestUtils.setField(codeBuffer, "maxBatch", BATCH);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    public void testRefillAfterRejected() {
+        // 占满补充线程池的线程和队列, 之后的异步补充都会被拒绝
+        ThreadPoolExecutor refillExecutor =
+                (ThreadPoolExecutor) ReflectionTestUtils.getField(codeBuffer, "refillExecutor");
+        int capacity = refillExecutor.getMaximumPoolSize() + refillExecutor.getQueue().remainingCapacity();
+        for (int i = 0; i != capacity; i++) {
+            refillExecutor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        Assert.assertEquals(0, refillExecutor.getQueue().remainingCapacity());
+
+        // 第一次领取同步补充一批, 剩余不足一半之后的异步补充被拒绝
+        for (int i = 0; i != BATCH; i++) {
+            Assert.assertNotNull(codeBuffer.acquire(TEMPLATE_ID));
+        }
+        Assert.assertEquals(1, pops.get());
+
+        // 缓冲为空时仍然可以同步补充
+        Assert.assertEquals("code-2-0", codeBuffer.acquire(TEMPLATE_ID));
+        Assert.assertEquals(2, pops.get());
+    }
+}
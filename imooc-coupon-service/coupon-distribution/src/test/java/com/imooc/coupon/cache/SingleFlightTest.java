@@ -0,0 +1,114 @@
+package com.imooc.coupon.cache;
+
+import com.imooc.coupon.constant.CouponStatus;
+import com.imooc.coupon.entity.Coupon;
+import com.imooc.coupon.exception.CouponException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 合并加载测试, 只测试节点内的合并(不配置 redis 租约)
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:15
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentLoadsAreMerged() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(null);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        SingleFlight.Loader<String> loader = () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return "coupons";
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<>();
+        results.add(executor.submit(() -> singleFlight.execute("1_1", loader, () -> null)));
+        loading.await();
+        for (int i = 0; i != 7; i++) {
+            results.add(executor.submit(() -> singleFlight.execute("1_1", loader, () -> null)));
+        }
+        // 等待其他请求进入等待状态
+        TimeUnit.MILLISECONDS.sleep(100);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            Assert.assertEquals("coupons", result.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(1, loads.get());
+        executor.shutdown();
+
+        // 加载完成之后再次执行会重新加载
+        Assert.assertEquals("coupons", singleFlight.execute("1_1", () -> {
+            loads.incrementAndGet();
+            return "coupons";
+        }, () -> null));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testWaitersGetCopies() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(null);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        SingleFlight.Loader<List<Coupon>> loader = () -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return Collections.singletonList(new Coupon(1, 1L, "code", CouponStatus.USABLE));
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<List<Coupon>> leader = executor.submit(
+                () -> singleFlight.execute("1_1", loader, () -> null, Coupon::copyAll));
+        loading.await();
+        Future<List<Coupon>> waiter = executor.submit(
+                () -> singleFlight.execute("1_1", loader, () -> null, Coupon::copyAll));
+        TimeUnit.MILLISECONDS.sleep(100);
+        release.countDown();
+
+        Coupon loaded = leader.get(5, TimeUnit.SECONDS).get(0);
+        Coupon copied = waiter.get(5, TimeUnit.SECONDS).get(0);
+        executor.shutdown();
+
+        Assert.assertNotSame(loaded, copied);
+        Assert.assertEquals(loaded.getCouponCode(), copied.getCouponCode());
+        copied.setStatus(CouponStatus.USED);
+        Assert.assertEquals(CouponStatus.USABLE, loaded.getStatus());
+    }
+
+    @Test
+    public void testExceptionIsSharedAndNotCached() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(null);
+        try {
+            singleFlight.execute("1_1", () -> {
+                throw new CouponException("DB Error");
+            }, () -> null);
+            Assert.fail();
+        } catch (CouponException ex) {
+            Assert.assertEquals("DB Error", ex.getMessage());
+        }
+        Assert.assertEquals("ok", singleFlight.execute("1_1", () -> "ok", () -> null));
+    }
+}
@@ -0,0 +1,88 @@
+package com.imooc.coupon.serialization;
+
+import com.alibaba.fastjson.JSON;
+import com.imooc.coupon.constant.CouponStatus;
+import com.imooc.coupon.entity.Coupon;
+import com.imooc.coupon.vo.CouponTemplateSDK;
+import com.imooc.coupon.vo.TemplateRule;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * 用户优惠券缓存编解码器测试
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:10
+ */
+public class CouponCodecTest {
+
+    private static Coupon newCoupon() {
+        Coupon coupon = new Coupon(1001, 20001L, "100120021312345678", CouponStatus.USABLE);
+        coupon.setId(123456);
+        coupon.setAssignTime(new Date(1581600000000L));
+        return coupon;
+    }
+
+    private static void assertCouponEquals(Coupon expected, Coupon actual) {
+        Assert.assertEquals(expected.getId(), actual.getId());
+        Assert.assertEquals(expected.getTemplateId(), actual.getTemplateId());
+        Assert.assertEquals(expected.getCouponCode(), actual.getCouponCode());
+        Assert.assertEquals(expected.getAssignTime(), actual.getAssignTime());
+        Assert.assertEquals(expected.getStatus(), actual.getStatus());
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Coupon coupon = newCoupon();
+        assertCouponEquals(coupon, new JsonCouponCodec().decode(new JsonCouponCodec().encode(coupon)));
+        assertCouponEquals(coupon, new BinaryCouponCodec().decode(new BinaryCouponCodec().encode(coupon)));
+
+        // 穿透保护的无效优惠券
+        Coupon invalid = new BinaryCouponCodec().decode(new BinaryCouponCodec().encode(Coupon.invalidCoupon()));
+        Assert.assertEquals(Integer.valueOf(-1), invalid.getId());
+        Assert.assertNull(invalid.getCouponCode());
+    }
+
+    @Test
+    public void testCouponCodeIsLast() {
+        Coupon coupon = newCoupon();
+        byte[] value = new BinaryCouponCodec().encode(coupon);
+        String tail = new String(value, value.length - coupon.getCouponCode().length(),
+                coupon.getCouponCode().length(), StandardCharsets.UTF_8);
+        Assert.assertEquals(coupon.getCouponCode(), tail);
+    }
+
+    @Test
+    public void testReadOldJson() {
+        Coupon coupon = newCoupon();
+        coupon.setTemplateSDK(new CouponTemplateSDK(1001, "name", "logo", "desc", "001", 1, "key", 1,
+                new TemplateRule()));
+        byte[] oldValue = JSON.toJSONString(coupon).getBytes(StandardCharsets.UTF_8);
+
+        CouponCacheCodec codec = new CouponCacheCodec();
+        ReflectionTestUtils.setField(codec, "codec", "binary");
+        Assert.assertEquals(BinaryCouponCodec.MAGIC, codec.encode(coupon)[0]);
+        assertCouponEquals(coupon, codec.decode(oldValue));
+        assertCouponEquals(coupon, codec.decode(codec.encode(coupon)));
+    }
+
+    @Test
+    public void testVersion() {
+        byte[] value = new BinaryCouponCodec().encode(newCoupon());
+        Assert.assertEquals(BinaryCouponCodec.MAGIC, value[0]);
+        Assert.assertEquals(BinaryCouponCodec.VERSION, value[1]);
+        Assert.assertTrue(value.length < new JsonCouponCodec().encode(newCoupon()).length);
+
+        value[1] = BinaryCouponCodec.VERSION + 1;
+        try {
+            new BinaryCouponCodec().decode(value);
+            Assert.fail();
+        } catch (IllegalArgumentException ex) {
+            Assert.assertTrue(ex.getMessage().startsWith("Unsupported Coupon Value Version"));
+        }
+    }
+}
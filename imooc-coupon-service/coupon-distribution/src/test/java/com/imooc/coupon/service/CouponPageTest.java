@@ -0,0 +1,128 @@
+package com.imooc.coupon.service;
+
+import com.imooc.coupon.cache.*;
+import com.imooc.coupon.constant.CouponStatus;
+import com.imooc.coupon.dao.CouponDao;
+import com.imooc.coupon.entity.Coupon;
+import com.imooc.coupon.exception.CouponException;
+import com.imooc.coupon.feign.SettlementClient;
+import com.imooc.coupon.feign.TemplateClient;
+import com.imooc.coupon.generator.CouponIdGenerator;
+import com.imooc.coupon.limiter.TemplateAdmission;
+import com.imooc.coupon.service.impl.UserServiceImpl;
+import com.imooc.coupon.vo.CouponPage;
+import com.imooc.coupon.vo.CouponTemplateSDK;
+import com.imooc.coupon.vo.TemplateRule;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static org.mockito.ArgumentMatchers.*;
+
+/**
+ * 用户优惠券分页查询的游标测试, 缓存和数据库都使用 mock
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:55
+ */
+@SuppressWarnings("unchecked")
+public class CouponPageTest {
+
+    private static final Long USER_ID = 20001L;
+
+    private static final Integer USED = CouponStatus.USED.getCode();
+
+    private CouponDao couponDao;
+
+    private IRedisService redisService;
+
+    private IUserService userService;
+
+    @Before
+    public void setUp() {
+        couponDao = Mockito.mock(CouponDao.class);
+        redisService = Mockito.mock(IRedisService.class);
+        TemplateCache templateCache = Mockito.mock(TemplateCache.class);
+        UserCouponFilter userCouponFilter = Mockito.mock(UserCouponFilter.class);
+        userService = new UserServiceImpl(couponDao, redisService,
+                Mockito.mock(TemplateClient.class), Mockito.mock(SettlementClient.class),
+                Mockito.mock(KafkaTemplate.class), Mockito.mock(CouponIdGenerator.class),
+                Mockito.mock(SoldOutRegistry.class), Mockito.mock(TemplateAdmission.class),
+                templateCache, Mockito.mock(TemplateSnapshot.class), userCouponFilter,
+                Mockito.mock(SingleFlight.class));
+        ReflectionTestUtils.setField(userService, "maxPageSize", 2);
+
+        CouponTemplateSDK template = new CouponTemplateSDK(1001, "name", "logo", "desc", "001", 1, "key", 1,
+                new TemplateRule());
+        Mockito.when(templateCache.getAll(any())).thenReturn(Collections.singletonMap(1001, template));
+        Mockito.when(userCouponFilter.mightHaveCoupons(USER_ID)).thenReturn(true);
+    }
+
+    private static Coupon newCoupon(Integer id) {
+        Coupon coupon = new Coupon(1001, USER_ID, "code" + id, CouponStatus.USED);
+        coupon.setId(id);
+        return coupon;
+    }
+
+    @Test
+    public void testCacheCursor() throws CouponException {
+        Mockito.when(redisService.scanCachedCoupons(USER_ID, USED, "0", 2))
+                .thenReturn(new CouponPage(new ArrayList<>(Collections.singletonList(newCoupon(1))), "17"));
+        Mockito.when(redisService.scanCachedCoupons(USER_ID, USED, "17", 2))
+                .thenReturn(new CouponPage(new ArrayList<>(Collections.singletonList(newCoupon(2))), null));
+
+        CouponPage first = userService.findCouponsByStatus(USER_ID, USED, null, 10);
+        Assert.assertEquals("r:17", first.getCursor());
+        Assert.assertEquals(Integer.valueOf(1), first.getCoupons().get(0).getId());
+
+        CouponPage last = userService.findCouponsByStatus(USER_ID, USED, first.getCursor(), 10);
+        Assert.assertNull(last.getCursor());
+        Assert.assertEquals(Integer.valueOf(2), last.getCoupons().get(0).getId());
+        Mockito.verifyZeroInteractions(couponDao);
+    }
+
+    @Test
+    public void testCacheMissFallsBackToDb() throws CouponException {
+        Mockito.when(redisService.scanCachedCoupons(USER_ID, USED, "17", 2)).thenReturn(null);
+        Mockito.when(couponDao.findByUserIdAndStatusAndIdGreaterThanOrderByIdAsc(
+                USER_ID, CouponStatus.USED, 0, PageRequest.of(0, 2)))
+                .thenReturn(new ArrayList<>(Arrays.asList(newCoupon(3), newCoupon(5))));
+
+        // 缓存在扫描过程中过期, 从数据库的第一页重新开始
+        CouponPage page = userService.findCouponsByStatus(USER_ID, USED, "r:17", 10);
+        Assert.assertEquals("d:5", page.getCursor());
+        Assert.assertEquals(2, page.getCoupons().size());
+        Assert.assertNotNull(page.getCoupons().get(0).getTemplateSDK());
+    }
+
+    @Test
+    public void testDbCursor() throws CouponException {
+        Mockito.when(couponDao.findByUserIdAndStatusAndIdGreaterThanOrderByIdAsc(
+                USER_ID, CouponStatus.USED, 5, PageRequest.of(0, 2)))
+                .thenReturn(new ArrayList<>(Collections.singletonList(newCoupon(8))));
+
+        CouponPage page = userService.findCouponsByStatus(USER_ID, USED, "d:5", 10);
+        Assert.assertNull(page.getCursor());
+        Assert.assertEquals(Integer.valueOf(8), page.getCoupons().get(0).getId());
+        Mockito.verify(redisService, Mockito.never()).scanCachedCoupons(anyLong(), anyInt(), anyString(), anyInt());
+    }
+
+    @Test
+    public void testInvalidCursor() {
+        for (String cursor : Arrays.asList("x:1", "d:abc", "17")) {
+            try {
+                userService.findCouponsByStatus(USER_ID, USED, cursor, 10);
+                Assert.fail(cursor);
+            } catch (CouponException ex) {
+                Assert.assertEquals("Invalid Coupon Page Cursor!", ex.getMessage());
+            }
+        }
+        Mockito.verifyZeroInteractions(couponDao);
+    }
+}
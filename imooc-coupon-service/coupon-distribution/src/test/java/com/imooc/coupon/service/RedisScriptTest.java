@@ -0,0 +1,300 @@
+package com.imooc.coupon.service;
+
+import com.imooc.coupon.cache.*;
+import com.imooc.coupon.config.RedisTemplateConfig;
+import com.imooc.coupon.constant.AcquireStatus;
+import com.imooc.coupon.constant.Constant;
+import com.imooc.coupon.constant.CouponStatus;
+import com.imooc.coupon.constant.PeriodType;
+import com.imooc.coupon.entity.Coupon;
+import com.imooc.coupon.exception.CouponException;
+import com.imooc.coupon.serialization.CouponCacheCodec;
+import com.imooc.coupon.service.impl.RedisServiceImpl;
+import com.imooc.coupon.vo.CouponTemplateSDK;
+import com.imooc.coupon.vo.TemplateRule;
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+
+/**
+ * 用户优惠券缓存 lua 脚本测试: 领取(预占、写入、归还、撤销)、状态变化和过期, 覆盖两种编码和两种布局
+ * 需要一个可以清空的 redis, 通过 -Dcoupon.test.redis.host / port / database 指定, 连接不上时跳过
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 20:00
+ */
+@RunWith(Parameterized.class)
+public class RedisScriptTest {
+
+    private static final Long USER_ID = 20001L;
+
+    private static final Integer TEMPLATE_ID = 1001;
+
+    private static final String CODE_KEY_PREFIX = Constant.RedisPrefix.COUPON_TEMPLATE + TEMPLATE_ID;
+
+    private static LettuceConnectionFactory connectionFactory;
+
+    @Parameterized.Parameter(0)
+    public String codec;
+
+    @Parameterized.Parameter(1)
+    public String layout;
+
+    private StringRedisTemplate redisTemplate;
+
+    private TemplateCache templateCache;
+
+    private CouponCacheCodec couponCacheCodec;
+
+    private IRedisService redisService;
+
+    private int nextCouponId = 1;
+
+    @Parameterized.Parameters(name = "{0}-{1}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][]{
+                {"json", "split"}, {"json", "unified"}, {"binary", "split"}, {"binary", "unified"}
+        });
+    }
+
+    @BeforeClass
+    public static void connect() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("coupon.test.redis.host", "localhost"),
+                Integer.getInteger("coupon.test.redis.port", 6379));
+        configuration.setDatabase(Integer.getInteger("coupon.test.redis.database", 15));
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+    }
+
+    @AfterClass
+    public static void disconnect() {
+        connectionFactory.destroy();
+    }
+
+    @Before
+    public void setUp() {
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        try {
+            redisTemplate.getConnectionFactory().getConnection().flushDb();
+        } catch (RuntimeException ex) {
+            Assume.assumeNoException("Redis Is Not Available", ex);
+        }
+
+        RedisTemplate<String, byte[]> couponCacheTemplate =
+                new RedisTemplateConfig().couponCacheRedisTemplate(connectionFactory);
+        couponCacheTemplate.afterPropertiesSet();
+
+        couponCacheCodec = Mockito.spy(new CouponCacheCodec());
+        ReflectionTestUtils.setField(couponCacheCodec, "codec", codec);
+
+        templateCache = Mockito.mock(TemplateCache.class);
+        useTemplate(System.currentTimeMillis() + 86400000L);
+
+        redisService = new RedisServiceImpl(redisTemplate, Mockito.mock(CouponCodeBuffer.class),
+                new SoldOutRegistry(redisTemplate), Mockito.mock(CouponNearCache.class), templateCache,
+                couponCacheTemplate, couponCacheCodec, Mockito.mock(UserCouponFilter.class),
+                Mockito.mock(RefreshAhead.class));
+        ReflectionTestUtils.setField(redisService, "layout", layout);
+        ReflectionTestUtils.setField(redisService, "expirationIndexEnabled", true);
+
+        redisService.saveEmptyCouponListToCache(USER_ID, Arrays.asList(
+                CouponStatus.USABLE.getCode(), CouponStatus.USED.getCode(), CouponStatus.EXPIRED.getCode()));
+    }
+
+    /**
+     * 模版在 deadline 过期
+     */
+    private CouponTemplateSDK useTemplate(long deadline) {
+        TemplateRule rule = new TemplateRule();
+        rule.setExpiration(new TemplateRule.Expiration(PeriodType.REGULAR.getCode(), 1, deadline));
+        rule.setLimitation(2);
+        CouponTemplateSDK template = new CouponTemplateSDK(TEMPLATE_ID, "name", "logo", "desc", "001", 1, "key", 1,
+                rule);
+        Mockito.when(templateCache.getAll(any())).thenReturn(Collections.singletonMap(TEMPLATE_ID, template));
+        return template;
+    }
+
+    private Coupon newCoupon() {
+        Coupon coupon = new Coupon(TEMPLATE_ID, USER_ID, null, CouponStatus.USABLE);
+        coupon.setId(nextCouponId++);
+        coupon.setTemplateSDK(templateCache.getAll(Collections.singleton(TEMPLATE_ID)).get(TEMPLATE_ID));
+        return coupon;
+    }
+
+    private void pushCode(String code) {
+        redisTemplate.opsForList().rightPush(CODE_KEY_PREFIX + "_3", code);
+    }
+
+    private long codesLeft() {
+        long count = 0;
+        for (int i = 0; i != Constant.COUPON_CODE_SHARD_NUM; i++) {
+            count += redisTemplate.opsForList().size(CODE_KEY_PREFIX + "_" + i);
+        }
+        return count;
+    }
+
+    private Set<Integer> cachedIds(CouponStatus status) throws CouponException {
+        return redisService.getCachedCoupons(USER_ID, status.getCode()).stream()
+                .filter(coupon -> coupon.getId() != -1)
+                .peek(coupon -> Assert.assertEquals(status, coupon.getStatus()))
+                .map(Coupon::getId)
+                .collect(Collectors.toSet());
+    }
+
+    private Integer templateCount() {
+        return redisService.getTemplateCounts(USER_ID).getOrDefault(TEMPLATE_ID, 0);
+    }
+
+    @Test
+    public void testAcquire() throws CouponException {
+        Coupon first = newCoupon();
+        Assert.assertEquals(AcquireStatus.NO_CODE, redisService.acquireCouponToCache(first, 2));
+        Assert.assertEquals(Integer.valueOf(0), templateCount());
+
+        pushCode("code-1");
+        Assert.assertEquals(AcquireStatus.SUCCESS, redisService.acquireCouponToCache(first, 2));
+        Assert.assertEquals("code-1", first.getCouponCode());
+        Assert.assertEquals(Collections.singleton(first.getId()), cachedIds(CouponStatus.USABLE));
+        Assert.assertEquals(Integer.valueOf(1), templateCount());
+
+        // 没有优惠券码时归还预占的名额
+        Assert.assertEquals(AcquireStatus.NO_CODE, redisService.acquireCouponToCache(newCoupon(), 2));
+        Assert.assertEquals(Integer.valueOf(1), templateCount());
+
+        pushCode("code-2");
+        Coupon second = newCoupon();
+        Assert.assertEquals(AcquireStatus.SUCCESS, redisService.acquireCouponToCache(second, 2));
+        Assert.assertEquals(Integer.valueOf(2), templateCount());
+
+        // 超过领取限制时不消耗优惠券码
+        pushCode("code-3");
+        Assert.assertEquals(AcquireStatus.LIMITED, redisService.acquireCouponToCache(newCoupon(), 2));
+        Assert.assertEquals(1, codesLeft());
+    }
+
+    @Test
+    public void testRebuiltCountExpires() throws CouponException {
+        Coupon coupon = newCoupon();
+        redisService.addCouponToCache(USER_ID, Collections.singletonList(coupon), CouponStatus.USABLE.getCode());
+        String countKey = ReflectionTestUtils.invokeMethod(redisService, "templateCountKey", USER_ID);
+        redisTemplate.delete(countKey);
+
+        // 重建计数之后超过领取限制, 计数也有过期时间
+        pushCode("code-1");
+        Assert.assertEquals(AcquireStatus.LIMITED, redisService.acquireCouponToCache(newCoupon(), 1));
+        Assert.assertEquals(Integer.valueOf(1), templateCount());
+        Assert.assertTrue(redisTemplate.getExpire(countKey) > 0);
+    }
+
+    @Test
+    public void testLoadKeepsReservation() throws CouponException {
+        pushCode("code-1");
+        Assert.assertEquals(AcquireStatus.SUCCESS, redisService.acquireCouponToCache(newCoupon(), 2));
+
+        // 从数据库加载时领取的优惠券还没有写入数据库, 计数不会被覆盖
+        redisService.addCouponToCache(USER_ID, Collections.singletonList(newCoupon()), CouponStatus.USABLE.getCode());
+        Assert.assertEquals(Integer.valueOf(1), templateCount());
+
+        // 计数不存在时从缓存中的全部优惠券重建
+        redisTemplate.delete((String) ReflectionTestUtils.invokeMethod(redisService, "templateCountKey", USER_ID));
+        redisService.addCouponToCache(USER_ID, Collections.singletonList(newCoupon()), CouponStatus.USABLE.getCode());
+        Assert.assertEquals(Integer.valueOf(3), templateCount());
+    }
+
+    @Test
+    public void testAcquireWithoutCache() {
+        redisTemplate.delete(redisTemplate.keys("imooc_user_coupon_*"));
+        pushCode("code-1");
+        Assert.assertEquals(AcquireStatus.CACHE_MISS, redisService.acquireCouponToCache(newCoupon(), 2));
+        Assert.assertEquals(1, codesLeft());
+    }
+
+    @Test
+    public void testAcquireFailure() {
+        pushCode("code-1");
+        Mockito.doThrow(new IllegalStateException("encode")).when(couponCacheCodec).encode(any());
+        try {
+            redisService.acquireCouponToCache(newCoupon(), 2);
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals("encode", ex.getMessage());
+        }
+
+        // 失败之后名额已经归还, 优惠券码放回列表
+        Mockito.doCallRealMethod().when(couponCacheCodec).encode(any());
+        Assert.assertEquals(Integer.valueOf(0), templateCount());
+        Assert.assertEquals(1, codesLeft());
+        Assert.assertEquals(AcquireStatus.SUCCESS, redisService.acquireCouponToCache(newCoupon(), 1));
+    }
+
+    @Test
+    public void testRollbackAcquire() throws CouponException {
+        pushCode("code-1");
+        Coupon coupon = newCoupon();
+        Assert.assertEquals(AcquireStatus.SUCCESS, redisService.acquireCouponToCache(coupon, 2));
+
+        redisService.rollbackAcquire(coupon, true);
+        Assert.assertTrue(cachedIds(CouponStatus.USABLE).isEmpty());
+        Assert.assertEquals(Integer.valueOf(0), templateCount());
+        Assert.assertTrue(redisService.findExpiredCouponIds(USER_ID).isEmpty());
+        Assert.assertEquals(1, codesLeft());
+
+        // 重复撤销不会多归还名额
+        redisService.rollbackAcquire(coupon, true);
+        Assert.assertEquals(Integer.valueOf(0), templateCount());
+    }
+
+    @Test
+    public void testTransition() throws CouponException {
+        pushCode("code-1");
+        Coupon coupon = newCoupon();
+        Assert.assertEquals(AcquireStatus.SUCCESS, redisService.acquireCouponToCache(coupon, 2));
+
+        Coupon used = coupon.copy();
+        Assert.assertEquals(Integer.valueOf(1),
+                redisService.addCouponToCache(USER_ID, Collections.singletonList(used), CouponStatus.USED.getCode()));
+        Assert.assertTrue(cachedIds(CouponStatus.USABLE).isEmpty());
+        Assert.assertEquals(Collections.singleton(coupon.getId()), cachedIds(CouponStatus.USED));
+        Assert.assertEquals(Integer.valueOf(0), templateCount());
+
+        // 已经不是可用状态的优惠券不能再次使用
+        try {
+            redisService.addCouponToCache(USER_ID, Collections.singletonList(coupon.copy()),
+                    CouponStatus.USED.getCode());
+            Assert.fail();
+        } catch (CouponException ex) {
+            Assert.assertEquals("Current Coupon List Is Not Equal To Cache", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testExpire() throws CouponException {
+        useTemplate(System.currentTimeMillis() - 1000);
+        pushCode("code-1");
+        Coupon coupon = newCoupon();
+        Assert.assertEquals(AcquireStatus.SUCCESS, redisService.acquireCouponToCache(coupon, 2));
+        Assert.assertEquals(Collections.singleton(coupon.getId()), redisService.findExpiredCouponIds(USER_ID));
+        Assert.assertEquals(Collections.singletonList(USER_ID), redisService.findUsersWithExpiredCoupons(10));
+
+        Assert.assertEquals(Collections.singletonList(coupon.getId()), redisService.expireCoupons(USER_ID, 10));
+        Assert.assertTrue(cachedIds(CouponStatus.USABLE).isEmpty());
+        Assert.assertEquals(Collections.singleton(coupon.getId()), cachedIds(CouponStatus.EXPIRED));
+        Assert.assertEquals(Integer.valueOf(0), templateCount());
+        Assert.assertTrue(redisService.findUsersWithExpiredCoupons(10).isEmpty());
+
+        // 再次处理时没有到期的优惠券
+        Assert.assertTrue(redisService.expireCoupons(USER_ID, 10).isEmpty());
+    }
+}
@@ -0,0 +1,160 @@
+package com.imooc.coupon.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.imooc.coupon.dao.CouponTemplateDao;
+import com.imooc.coupon.entity.CouponTemplate;
+import com.imooc.coupon.service.impl.TemplateBaseServiceimpl;
+import com.imooc.coupon.vo.CouponTemplateSDK;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按模版id缓存的模版信息, 同时保存模版实体和转换好的 CouponTemplateSDK
+ * 缓存中没有的模版一次查询数据库, 模版变化时由版本服务和定时同步任务失效
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:35
+ */
+@Slf4j
+@Component
+public class TemplateInfoCache {
+
+    private final CouponTemplateDao templateDao;
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 是否开启模版信息缓存, 关闭时直接查询数据库
+     */
+    @Value("${coupon.template-info-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${coupon.template-info-cache.max-size:10000}")
+    private long maxSize;
+
+    /**
+     * 兜底的过期时间, 其他实例的模版变化最晚在这个时间之后可见
+     */
+    @Value("${coupon.template-info-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    /**
+     * 模版id -> (模版实体, 模版信息)
+     */
+    private Cache<Integer, Pair<CouponTemplate, CouponTemplateSDK>> cache;
+
+    /**
+     * 已经同步到的模版变化版本号, -1 表示还没有同步过
+     */
+    private volatile long version = -1;
+
+    @Autowired
+    public TemplateInfoCache(CouponTemplateDao templateDao, MeterRegistry meterRegistry) {
+        this.templateDao = templateDao;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, cache, "coupon.template-info-cache");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 获取模版实体
+     *
+     * @param id 模版id
+     * @return 模版不存在时返回 null
+     */
+    public CouponTemplate get(Integer id) {
+        Pair<CouponTemplate, CouponTemplateSDK> entry = getAllEntries(Collections.singleton(id)).get(id);
+        return null == entry ? null : entry.getLeft();
+    }
+
+    /**
+     * 批量获取模版信息
+     *
+     * @param ids 模版id
+     * @return 模版id -> 模版信息, 不存在的模版不包含在结果中
+     */
+    public Map<Integer, CouponTemplateSDK> getAllSDK(Collection<Integer> ids) {
+        Map<Integer, CouponTemplateSDK> result = new HashMap<>(ids.size());
+        getAllEntries(ids).forEach((id, entry) -> result.put(id, entry.getRight()));
+        return result;
+    }
+
+    /**
+     * 失效模版的缓存
+     *
+     * @param ids 模版id
+     */
+    public void invalidateAll(Collection<Integer> ids) {
+        cache.invalidateAll(ids);
+        log.debug("Invalidate Template Info Cache: {}", ids);
+    }
+
+    /**
+     * 失效所有模版的缓存
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+        log.debug("Invalidate All Template Info Cache.");
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    private Map<Integer, Pair<CouponTemplate, CouponTemplateSDK>> getAllEntries(Collection<Integer> ids) {
+        if (!enabled) {
+            return load(ids);
+        }
+
+        Map<Integer, Pair<CouponTemplate, CouponTemplateSDK>> result = new HashMap<>(cache.getAllPresent(ids));
+        if (result.size() == ids.size()) {
+            return result;
+        }
+
+        // 缓存中没有的模版一次查询数据库
+        List<Integer> missIds = new ArrayList<>(ids.size() - result.size());
+        ids.forEach(id -> {
+            if (!result.containsKey(id)) {
+                missIds.add(id);
+            }
+        });
+        Map<Integer, Pair<CouponTemplate, CouponTemplateSDK>> loaded = load(missIds);
+        cache.putAll(loaded);
+        result.putAll(loaded);
+        log.debug("Load Template Info: {}, {}", missIds, loaded.keySet());
+        return result;
+    }
+
+    private Map<Integer, Pair<CouponTemplate, CouponTemplateSDK>> load(Collection<Integer> ids) {
+        Map<Integer, Pair<CouponTemplate, CouponTemplateSDK>> result = new HashMap<>(ids.size());
+        templateDao.findAllById(ids).forEach(template ->
+                result.put(template.getId(), Pair.of(template, TemplateBaseServiceimpl.template2SDK(template))));
+        return result;
+    }
+}
@@ -0,0 +1,127 @@
+package com.imooc.coupon.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.imooc.coupon.exception.CouponException;
+import com.imooc.coupon.service.ITemplateBaseService;
+import com.imooc.coupon.service.ITemplateVersionService;
+import com.imooc.coupon.vo.CommonResponse;
+import com.imooc.coupon.vo.CouponTemplateSDK;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 序列化好的可用模版响应
+ * 保存统一响应格式的 json 字节和 ETag, 只有模版集合版本变化时才重新查询数据库和序列化
+ * 读取版本号失败(redis 不可用)时返回已有的响应, 还没有响应时查询数据库构造
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:35
+ */
+@Slf4j
+@Component
+public class UsableTemplateResponse {
+
+    private final ITemplateBaseService templateBaseService;
+
+    private final ITemplateVersionService templateVersionService;
+
+    /**
+     * 与 WebConfig 中的 MappingJackson2HttpMessageConverter 使用相同的配置, 保证响应内容不变
+     */
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    /**
+     * 版本号未知时使用的版本, 不会和任何真实版本相等, redis 恢复后的第一次请求重新构造
+     */
+    private static final Long UNKNOWN_VERSION = -1L;
+
+    /**
+     * 当前的响应, 还没有构造时为 null
+     */
+    private volatile Body body;
+
+    @Autowired
+    public UsableTemplateResponse(ITemplateBaseService templateBaseService,
+                                  ITemplateVersionService templateVersionService) {
+        this.templateBaseService = templateBaseService;
+        this.templateVersionService = templateVersionService;
+    }
+
+    /**
+     * 获取当前版本的响应, 版本变化时重新构造
+     *
+     * @return {@link Body}
+     * @throws CouponException 序列化失败
+     */
+    public Body get() throws CouponException {
+        Long version;
+        try {
+            version = templateVersionService.currentVersion();
+        } catch (RuntimeException ex) {
+            log.error("Get Template Version Error, Serve Last Usable Template Response: {}", ex.getMessage());
+            version = UNKNOWN_VERSION;
+        }
+        Body current = body;
+        if (null != current && UNKNOWN_VERSION.equals(version)) {
+            return current;
+        }
+        if (null != current && current.getVersion().equals(version)) {
+            return current;
+        }
+
+        synchronized (this) {
+            current = body;
+            if (null != current && (current.getVersion().equals(version) || UNKNOWN_VERSION.equals(version))) {
+                return current;
+            }
+            // 先读取版本号再查询数据库, 查询期间的变化会让下一次请求重新构造
+            current = build(version);
+            body = current;
+            return current;
+        }
+    }
+
+    private Body build(Long version) throws CouponException {
+        List<CouponTemplateSDK> templates = templateBaseService.findAllUsableTemplate();
+        // 按id排序, 相同的模版集合在每个实例上序列化出相同的字节和 ETag
+        templates.sort(Comparator.comparing(CouponTemplateSDK::getId));
+
+        byte[] bytes;
+        try {
+            bytes = objectMapper.writeValueAsBytes(new CommonResponse<>(0, "", templates));
+        } catch (JsonProcessingException ex) {
+            log.error("Serialize Usable Template Error: {}", ex.getMessage());
+            throw new CouponException("Serialize Usable Template Error");
+        }
+
+        String etag = "\"" + DigestUtils.md5DigestAsHex(bytes) + "\"";
+        log.info("Build Usable Template Response: {}, {}, {}", version, templates.size(), etag);
+        return new Body(version, etag, bytes);
+    }
+
+    /**
+     * 某个版本的响应
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Body {
+
+        /** 模版集合版本号 */
+        private final Long version;
+
+        /** 响应内容的 ETag */
+        private final String etag;
+
+        /** 统一响应格式的 json 字节 */
+        private final byte[] bytes;
+    }
+}
@@ -10,6 +10,8 @@ import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.ThreadPoolExecutor;
 
 /**
@@ -41,6 +43,26 @@ public class AsyncPoolConfig implements AsyncConfigurer {
         return executor;
     }
 
+    /**
+     * 并行生成优惠券码的 fork-join 线程池, 线程数与 CPU 核数相同
+     *
+     * @return
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ForkJoinPool couponCodeForkJoinPool() {
+        return new ForkJoinPool(
+                Runtime.getRuntime().availableProcessors(),
+                pool -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("Imooc_CouponCode_" + thread.getPoolIndex());
+                    return thread;
+                },
+                (thread, throwable) -> log.error("CouponCode Worker Error: {}, {}",
+                        thread.getName(), throwable.getMessage()),
+                false
+        );
+    }
+
     @Override
     public AsyncUncaughtExceptionHandler getAsyncUncaughtExceptionHandler() {
         return (throwable, method, objects) -> {
@@ -0,0 +1,40 @@
+package com.imooc.coupon.config;
+
+import com.imooc.coupon.constant.Constant;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.common.config.TopicConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Collections;
+
+/**
+ * 优惠券模版变化事件的 topic 配置
+ * 开启日志压缩, 每个模版只保留最后一个事件, 新节点从头消费即可恢复所有模版
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:30
+ */
+@Configuration
+@ConditionalOnProperty(name = "coupon.template-events.enabled", havingValue = "true")
+public class TemplateEventTopicConfig {
+
+    @Value("${coupon.template-events.partitions:3}")
+    private int partitions;
+
+    @Value("${coupon.template-events.replicas:1}")
+    private short replicas;
+
+    /**
+     * 启动时由 KafkaAdmin 创建, 已经存在时不修改
+     *
+     * @return
+     */
+    @Bean
+    public NewTopic templateChangeTopic() {
+        return new NewTopic(Constant.TEMPLATE_CHANGE_TOPIC, partitions, replicas)
+                .configs(Collections.singletonMap(TopicConfig.CLEANUP_POLICY_CONFIG, TopicConfig.CLEANUP_POLICY_COMPACT));
+    }
+}
@@ -1,18 +1,24 @@
 package com.imooc.coupon.controller;
 
 import com.alibaba.fastjson.JSON;
+import com.imooc.coupon.annotation.IgnoreResponseAdvice;
+import com.imooc.coupon.cache.UsableTemplateResponse;
 import com.imooc.coupon.entity.CouponTemplate;
 import com.imooc.coupon.exception.CouponException;
 import com.imooc.coupon.service.IBuildTemplateService;
 import com.imooc.coupon.service.ITemplateBaseService;
 import com.imooc.coupon.vo.CouponTemplateSDK;
+import com.imooc.coupon.vo.TemplateChanges;
 import com.imooc.coupon.vo.TemplateRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Collection;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -33,11 +39,17 @@ public class CouponTemplateController {
      * 优惠券模版基础服务
      */
     private final ITemplateBaseService templateBaseService;
+    /**
+     * 序列化好的可用模版响应
+     */
+    private final UsableTemplateResponse usableTemplateResponse;
 
     @Autowired
-    public CouponTemplateController(IBuildTemplateService buildTemplateService, ITemplateBaseService templateBaseService) {
+    public CouponTemplateController(IBuildTemplateService buildTemplateService, ITemplateBaseService templateBaseService,
+                                    UsableTemplateResponse usableTemplateResponse) {
         this.buildTemplateService = buildTemplateService;
         this.templateBaseService = templateBaseService;
+        this.usableTemplateResponse = usableTemplateResponse;
     }
 
     /**
@@ -70,14 +82,27 @@ public class CouponTemplateController {
 
     /**
      * 查找所有可用的优惠券模版
+     * 直接返回序列化好的统一响应, If-None-Match 与 ETag 相同时返回 304
      * localhost:7001/coupon-template/template/sdk/all
      * localhost:9000/imooc/coupon-template/template/sdk/all
+     * @param ifNoneMatch
      * @return
      */
+    @IgnoreResponseAdvice
     @GetMapping("/template/sdk/all")
-    public List<CouponTemplateSDK> findAllUsableTemplate() {
+    public ResponseEntity<byte[]> findAllUsableTemplate(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch)
+            throws CouponException {
+        UsableTemplateResponse.Body body = usableTemplateResponse.get();
+        if (body.getEtag().equals(ifNoneMatch)) {
+            log.debug("Usable Template Not Modified: {}", body.getEtag());
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(body.getEtag()).build();
+        }
         log.info("Find All Usable Template.");
-        return templateBaseService.findAllUsableTemplate();
+        return ResponseEntity.ok()
+                .eTag(body.getEtag())
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(body.getBytes());
     }
 
     /**
@@ -92,4 +117,17 @@ public class CouponTemplateController {
         log.info("FindIds2TemplateSDK: {}", JSON.toJSONString(ids));
         return templateBaseService.findIds2TemplateSDK(ids);
     }
+
+    /**
+     * 查询某个版本之后变化的模版
+     * localhost:7001/coupon-template/template/sdk/changes?version=-1
+     * localhost:9000/imooc/coupon-template/template/sdk/changes?version=-1
+     * @param version
+     * @return
+     */
+    @GetMapping("/template/sdk/changes")
+    public TemplateChanges findTemplateChanges(@RequestParam("version") Long version) {
+        log.debug("Find Template Changes Since: {}", version);
+        return templateBaseService.findTemplateChanges(version);
+    }
 }
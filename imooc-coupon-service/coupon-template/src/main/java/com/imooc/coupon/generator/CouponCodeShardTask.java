@@ -0,0 +1,97 @@
+package com.imooc.coupon.generator;
+
+import com.google.common.base.Stopwatch;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 优惠券码分片生成任务
+ * 序号区间 [from, to) 大于分片大小时一分为二并行执行, 否则在当前线程中
+ * 按批生成优惠券码并交给 pusher 推送, 返回推送的优惠券码个数
+ *
+ * 分片的边界总是批大小的整数倍, 因此每一批的序号区间与是否并行无关
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 18:55
+ */
+@Slf4j
+public class CouponCodeShardTask extends RecursiveTask<Long> {
+
+    private final CouponCodeGenerator generator;
+
+    /**
+     * 推送一批优惠券码, 参数是这一批第一个序号和优惠券码, 返回推送的个数
+     */
+    private final ChunkPusher pusher;
+
+    private final int from;
+
+    private final int to;
+
+    private final int chunkSize;
+
+    private final int shardSize;
+
+    public CouponCodeShardTask(CouponCodeGenerator generator, ChunkPusher pusher,
+                               int from, int to, int chunkSize, int shardSize) {
+        this.generator = generator;
+        this.pusher = pusher;
+        this.from = from;
+        this.to = to;
+        this.chunkSize = chunkSize;
+        this.shardSize = shardSize;
+    }
+
+    @Override
+    protected Long compute() {
+        if (to - from > shardSize) {
+            //以批为单位一分为二
+            int chunks = (to - from + chunkSize - 1) / chunkSize;
+            int mid = from + (chunks / 2) * chunkSize;
+
+            CouponCodeShardTask left = new CouponCodeShardTask(generator, pusher, from, mid, chunkSize, shardSize);
+            CouponCodeShardTask right = new CouponCodeShardTask(generator, pusher, mid, to, chunkSize, shardSize);
+            left.fork();
+            return right.compute() + left.join();
+        }
+
+        Stopwatch watch = Stopwatch.createStarted();
+
+        long pushed = 0;
+        List<String> chunk = new ArrayList<>(Math.min(to - from, chunkSize));
+        int chunkStart = from;
+        for (int seq = from; seq != to; seq++) {
+            chunk.add(generator.generate(seq));
+
+            if (chunk.size() == chunkSize || seq == to - 1) {
+                pushed += pusher.push(chunkStart, chunk);
+                chunk.clear();
+                chunkStart = seq + 1;
+            }
+        }
+
+        watch.stop();
+        log.info("Build CouponCode Shard [{}, {}) Cost: {}ms", from, to, watch.elapsed(TimeUnit.MILLISECONDS));
+
+        return pushed;
+    }
+
+    /**
+     * 一批优惠券码的推送动作
+     */
+    @FunctionalInterface
+    public interface ChunkPusher {
+        /**
+         * 推送一批优惠券码
+         *
+         * @param chunkStart 这一批第一个优惠券码的序号
+         * @param chunk 优惠券码
+         * @return 推送的优惠券码个数
+         */
+        int push(int chunkStart, List<String> chunk);
+    }
+}
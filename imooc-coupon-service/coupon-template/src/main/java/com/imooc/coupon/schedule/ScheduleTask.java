@@ -1,7 +1,9 @@
 package com.imooc.coupon.schedule;
 
+import com.imooc.coupon.cache.TemplateInfoCache;
 import com.imooc.coupon.dao.CouponTemplateDao;
 import com.imooc.coupon.entity.CouponTemplate;
+import com.imooc.coupon.service.ITemplateVersionService;
 import com.imooc.coupon.vo.TemplateRule;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
@@ -10,11 +12,13 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
- * 定时清理已过期的优惠券模版
+ * 定时清理已过期的优惠券模版, 同步其他实例的模版变化到模版信息缓存
  *
  * @AUTHOR zhangxf
  * @CREATE 2020-02-12 22:15
@@ -25,9 +29,22 @@ public class ScheduleTask {
 
     private final CouponTemplateDao templateDao;
 
+    /**
+     * 模版集合版本服务
+     */
+    private final ITemplateVersionService templateVersionService;
+
+    /**
+     * 按模版id缓存的模版信息
+     */
+    private final TemplateInfoCache templateInfoCache;
+
     @Autowired
-    public ScheduleTask(CouponTemplateDao templateDao) {
+    public ScheduleTask(CouponTemplateDao templateDao, ITemplateVersionService templateVersionService,
+                        TemplateInfoCache templateInfoCache) {
         this.templateDao = templateDao;
+        this.templateVersionService = templateVersionService;
+        this.templateInfoCache = templateInfoCache;
     }
 
     /**
@@ -59,8 +76,35 @@ public class ScheduleTask {
         if (CollectionUtils.isNotEmpty(expiredTemplateList)) {
             log.info("Expired CouponTemplate Num: {}",
                     templateDao.saveAll(expiredTemplateList));
+            expiredTemplateList.forEach(templateVersionService::recordChange);
         }
 
         log.info("Done To Expire CouponTemplate.");
     }
+
+    /**
+     * 根据模版变化记录失效模版信息缓存
+     * 本实例的变化在记录时已经失效, 这里处理其他实例的变化和失效期间并发加载的旧数据
+     */
+    @Scheduled(fixedDelayString = "${coupon.template-info-cache.sync-millis:5000}")
+    public void syncTemplateInfoCache() {
+        if (!templateInfoCache.isEnabled()) {
+            return;
+        }
+
+        long version = templateInfoCache.getVersion();
+        if (version < 0) {
+            // 第一次同步, 不知道启动之前的变化, 清空缓存
+            templateInfoCache.setVersion(templateVersionService.currentVersion());
+            templateInfoCache.invalidateAll();
+            return;
+        }
+
+        Map<Integer, Long> changes = templateVersionService.findChangesSince(version);
+        if (changes.isEmpty()) {
+            return;
+        }
+        templateInfoCache.invalidateAll(changes.keySet());
+        templateInfoCache.setVersion(Collections.max(changes.values()));
+    }
 }
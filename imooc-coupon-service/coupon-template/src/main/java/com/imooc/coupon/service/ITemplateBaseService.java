@@ -3,6 +3,7 @@ package com.imooc.coupon.service;
 import com.imooc.coupon.entity.CouponTemplate;
 import com.imooc.coupon.exception.CouponException;
 import com.imooc.coupon.vo.CouponTemplateSDK;
+import com.imooc.coupon.vo.TemplateChanges;
 
 import java.util.Collection;
 import java.util.List;
@@ -35,4 +36,11 @@ public interface ITemplateBaseService {
      * @return Map<key : 模版id, value : CouponTemplateSDK>
      */
     Map<Integer, CouponTemplateSDK> findIds2TemplateSDK(Collection<Integer> ids);
+
+    /**
+     * 查询某个版本之后变化的模版
+     * @param version 上一次同步到的版本号, 第一次同步为 -1
+     * @return {@link TemplateChanges}
+     */
+    TemplateChanges findTemplateChanges(Long version);
 }
@@ -0,0 +1,36 @@
+package com.imooc.coupon.service;
+
+import com.imooc.coupon.entity.CouponTemplate;
+
+import java.util.Map;
+
+/**
+ * 优惠券模版集合版本服务接口定义
+ * 每次模版变化(创建、可用、过期)版本号加一, 其他服务按版本号增量同步模版
+ * 开启模版变化事件时同时发布到 kafka, 其他服务可以立即更新本地的模版
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:30
+ */
+public interface ITemplateVersionService {
+
+    /**
+     * 记录模版的变化
+     * @param template 变化后的模版
+     * @return 新的版本号
+     */
+    Long recordChange(CouponTemplate template);
+
+    /**
+     * 获取当前的版本号
+     * @return 还没有变化记录时返回 0
+     */
+    Long currentVersion();
+
+    /**
+     * 查询某个版本之后变化的模版
+     * @param version
+     * @return Map<key : 模版id, value : 模版最后一次变化的版本号>
+     */
+    Map<Integer, Long> findChangesSince(Long version);
+}
@@ -4,21 +4,25 @@ import com.google.common.base.Stopwatch;
 import com.imooc.coupon.constant.Constant;
 import com.imooc.coupon.dao.CouponTemplateDao;
 import com.imooc.coupon.entity.CouponTemplate;
+import com.imooc.coupon.generator.CouponCodeGenerator;
+import com.imooc.coupon.generator.CouponCodeShardTask;
 import com.imooc.coupon.service.IAsyncService;
+import com.imooc.coupon.service.ITemplateVersionService;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.RandomStringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
+import java.security.SecureRandom;
 import java.text.SimpleDateFormat;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 /**
  * 异步服务接口实现
@@ -29,14 +33,48 @@ import java.util.stream.Collectors;
 @Service
 public class AsyncServiceImpl implements IAsyncService {
 
+    /**
+     * 每一批生成的优惠券码个数, 生成过程中每个线程最多只保留一批
+     */
+    private static final int COUPON_CODE_CHUNK_SIZE = 10000;
+
+    /**
+     * 每一条 RPUSH 命令携带的优惠券码个数, 一批优惠券码拆成多条命令通过 pipeline 发送
+     */
+    private static final int COUPON_CODE_PUSH_SIZE = 1000;
+
+    /**
+     * 生成优惠券码置换 key 的随机数源
+     */
+    private static final SecureRandom KEY_RANDOM = new SecureRandom();
+
+    /**
+     * 优惠券码置换 key 的字节数
+     */
+    private static final int COUPON_CODE_KEY_BYTES = 32;
+
     private final CouponTemplateDao templateDao;
 
     private final StringRedisTemplate redisTemplate;
 
+    /**
+     * 并行生成优惠券码的线程池
+     */
+    private final ForkJoinPool couponCodeForkJoinPool;
+
+    /**
+     * 模版集合版本服务
+     */
+    private final ITemplateVersionService templateVersionService;
+
     @Autowired
-    public AsyncServiceImpl(CouponTemplateDao templateDao, StringRedisTemplate redisTemplate) {
+    public AsyncServiceImpl(CouponTemplateDao templateDao, StringRedisTemplate redisTemplate,
+                            ForkJoinPool couponCodeForkJoinPool,
+                            ITemplateVersionService templateVersionService) {
         this.templateDao = templateDao;
         this.redisTemplate = redisTemplate;
+        this.couponCodeForkJoinPool = couponCodeForkJoinPool;
+        this.templateVersionService = templateVersionService;
     }
 
     @Async("getAsyncExecutor")
@@ -44,16 +82,29 @@ public class AsyncServiceImpl implements IAsyncService {
     public void asyncConstructCouponByTemplate(CouponTemplate template) {
         Stopwatch watch = Stopwatch.createStarted();
 
-        Set<String> couponCodes = buildCouponCode(template);
+        String redisKeyPrefix = String.format("%s%s", Constant.RedisPrefix.COUPON_TEMPLATE, template.getId().toString());
 
-        String redisKey = String.format("%s%s", Constant.RedisPrefix.COUPON_TEMPLATE, template.getId().toString());
+        //之前中断的构造可能已经推送了一部分优惠券码, 它们使用另一个 key 生成, 和这次的优惠券码可能重复, 先全部删除;
+        //模版还不可用, 这些优惠券码不会被领取
+        deleteCouponCode(redisKeyPrefix);
 
-        //放入redis中并打印日志
-        log.info("Push CouponCode To Redis: {}", redisTemplate.opsForList().rightPushAll(redisKey, couponCodes));
+        //分批生成并放入redis的子列表中, 打印日志
+        try {
+            log.info("Push CouponCode To Redis: {}", buildAndPushCouponCode(template, redisKeyPrefix));
+        } catch (RuntimeException ex) {
+            log.error("Construct CouponCode By Template Error: {}, {}", template.getId(), ex.getMessage());
+            deleteCouponCode(redisKeyPrefix);
+            throw ex;
+        }
 
+        //所有批次都写入 redis 之后模版才是可用的
         template.setAvailable(true);
 
         templateDao.save(template);
+        templateVersionService.recordChange(template);
+
+        //通知分发服务清除模版的售罄状态
+        redisTemplate.convertAndSend(Constant.TEMPLATE_STOCK_CHANNEL, "RESTOCK:" + template.getId());
 
         watch.stop();
         log.info("Construct CouponCode By Template Cost: {}ms", watch.elapsed(TimeUnit.MILLISECONDS));
@@ -64,61 +115,100 @@ public class AsyncServiceImpl implements IAsyncService {
     }
 
     /**
-     * 构造优惠券码
-     * 优惠券码对应于每一张优惠券，18位
-     * 前四位：产品线 + 类型
-     * 中间六位：日期随机（190101）
-     * 后八位：0～9随机数构成
+     * 构造优惠券码并分批推送到 redis 中
+     * 优惠券码格式见 {@link CouponCodeGenerator}, 序号 [0, count) 一一映射到优惠券码
+     *
+     * 序号区间被拆成互不相交的分片, 在 fork-join 线程池中并行生成和推送;
+     * 每个分片每次只生成 COUPON_CODE_CHUNK_SIZE 个优惠券码, 内存占用与优惠券数量无关
+     * 序号为 n 的优惠券码推送到第 n % COUPON_CODE_SHARD_NUM 个子列表中, 优惠券数量很少时各子列表的数量也基本相同
      *
      * @param template
-     * @return Set<String> 于template.count 相同个数的优惠券码
+     * @param redisKeyPrefix 子列表 key 的前缀
+     * @return 推送到 redis 中的优惠券码个数
      */
-    @SuppressWarnings("all")
-    private Set<String> buildCouponCode(CouponTemplate template) {
+    private long buildAndPushCouponCode(CouponTemplate template, String redisKeyPrefix) {
         Stopwatch watch = Stopwatch.createStarted();
 
-        Set<String> result = new HashSet<>(template.getCount());
+        int count = template.getCount();
 
         String prefix_4 = template.getProductLine().getCode().toString() + template.getCategory().getCode();
         String date = new SimpleDateFormat("yyMMdd").format(template.getCreateTime());
 
-        for (int i = 0; i != template.getCount(); i++) {
-            result.add(prefix_4 + buildCouponCodeSuffix_14(date));
-        }
+        //每个模版使用随机的 key, 优惠券码无法被猜出
+        byte[] key = new byte[COUPON_CODE_KEY_BYTES];
+        KEY_RANDOM.nextBytes(key);
+        CouponCodeGenerator generator = new CouponCodeGenerator(prefix_4, date, key);
 
-        //随机数可能重复，去重
-        while (result.size() < template.getCount()) {
-            result.add(prefix_4 + buildCouponCodeSuffix_14(date));
-        }
+        //每个线程大约分到 4 个分片, 分片不小于一批
+        int shardSize = Math.max(COUPON_CODE_CHUNK_SIZE,
+                count / (couponCodeForkJoinPool.getParallelism() * 4));
 
-        assert result.size() == template.getCount();
+        long pushed = couponCodeForkJoinPool.invoke(new CouponCodeShardTask(
+                generator,
+                (chunkStart, chunk) -> pushCouponCodeChunk(redisKeyPrefix, chunkStart, chunk),
+                0, count, COUPON_CODE_CHUNK_SIZE, shardSize
+        ));
 
         watch.stop();
 
-        log.info("build coupon code cost: {}ms", watch.elapsed(TimeUnit.MILLISECONDS));
-
-        return result;
+        log.info("build coupon code cost: {}ms, count: {}, shard size: {}",
+                watch.elapsed(TimeUnit.MILLISECONDS), pushed, shardSize);
 
+        return pushed;
     }
 
     /**
-     * 构造优惠券码的后 14 位
+     * 删除模版所有的优惠券码子列表, 以及未拆分之前的列表
      *
-     * @param date 创建优惠券的日期
-     * @return 14 位优惠券码
+     * @param redisKeyPrefix 子列表 key 的前缀
      */
-    private String buildCouponCodeSuffix_14(String date) {
-        char[] bases = new char[]{'1', '2', '3', '4', '5', '6', '7', '8', '9'};
-        //中间六位
-        List<Character> chars = date.chars().mapToObj(e -> (char) e).collect(Collectors.toList());
-
-        //洗牌算法
-        Collections.shuffle(chars);
-
-        String mid_6 = chars.stream().map(Object::toString).collect(Collectors.joining());
+    private void deleteCouponCode(String redisKeyPrefix) {
+        List<String> redisKeys = new ArrayList<>(Constant.COUPON_CODE_SHARD_NUM + 1);
+        redisKeys.add(redisKeyPrefix);
+        for (int shard = 0; shard != Constant.COUPON_CODE_SHARD_NUM; shard++) {
+            redisKeys.add(String.format("%s_%s", redisKeyPrefix, shard));
+        }
+        Long deleted = redisTemplate.delete(redisKeys);
+        if (null != deleted && deleted > 0) {
+            log.warn("Delete Partial CouponCode Of Template: {}, {}", redisKeyPrefix, deleted);
+        }
+    }
 
-        String suffix_8 = RandomStringUtils.random(1, bases) + RandomStringUtils.randomNumeric(7);
+    /**
+     * 将一批优惠券码按序号轮流分到各个子列表, 拆成多条 RPUSH 命令通过 pipeline 一次发送到 redis
+     *
+     * @param redisKeyPrefix 子列表 key 的前缀
+     * @param chunkStart 这一批第一个优惠券码的序号
+     * @param chunk 一批优惠券码
+     * @return 推送的优惠券码个数
+     */
+    @SuppressWarnings("all")
+    private int pushCouponCodeChunk(String redisKeyPrefix, int chunkStart, List<String> chunk) {
+        List<List<String>> shards = new ArrayList<>(Constant.COUPON_CODE_SHARD_NUM);
+        for (int i = 0; i != Constant.COUPON_CODE_SHARD_NUM; i++) {
+            shards.add(new ArrayList<>(chunk.size() / Constant.COUPON_CODE_SHARD_NUM + 1));
+        }
+        for (int i = 0; i != chunk.size(); i++) {
+            shards.get((chunkStart + i) % Constant.COUPON_CODE_SHARD_NUM).add(chunk.get(i));
+        }
 
-        return mid_6 + suffix_8;
+        SessionCallback<Object> sessionCallback = new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations redisOperations) throws DataAccessException {
+                for (int shard = 0; shard != Constant.COUPON_CODE_SHARD_NUM; shard++) {
+                    String redisKey = String.format("%s_%s", redisKeyPrefix, shard);
+                    List<String> codes = shards.get(shard);
+                    for (int from = 0; from < codes.size(); from += COUPON_CODE_PUSH_SIZE) {
+                        List<String> part = codes.subList(from, Math.min(from + COUPON_CODE_PUSH_SIZE, codes.size()));
+                        redisOperations.opsForList().rightPushAll(redisKey, part);
+                    }
+                }
+                return null;
+            }
+        };
+        redisTemplate.executePipelined(sessionCallback);
+
+        log.debug("Push CouponCode Chunk To Redis: {}, {}, {}", redisKeyPrefix, chunkStart, chunk.size());
+        return chunk.size();
     }
 }
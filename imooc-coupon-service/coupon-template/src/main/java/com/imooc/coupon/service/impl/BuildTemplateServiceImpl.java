@@ -5,6 +5,7 @@ import com.imooc.coupon.entity.CouponTemplate;
 import com.imooc.coupon.exception.CouponException;
 import com.imooc.coupon.service.IAsyncService;
 import com.imooc.coupon.service.IBuildTemplateService;
+import com.imooc.coupon.service.ITemplateVersionService;
 import com.imooc.coupon.vo.TemplateRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,10 +24,15 @@ public class BuildTemplateServiceImpl implements IBuildTemplateService {
 
     private final CouponTemplateDao templateDao;
 
+    //模版集合版本服务
+    private final ITemplateVersionService templateVersionService;
+
     @Autowired
-    public BuildTemplateServiceImpl(IAsyncService asyncService, CouponTemplateDao templateDao) {
+    public BuildTemplateServiceImpl(IAsyncService asyncService, CouponTemplateDao templateDao,
+                                    ITemplateVersionService templateVersionService) {
         this.asyncService = asyncService;
         this.templateDao = templateDao;
+        this.templateVersionService = templateVersionService;
     }
 
     /**
@@ -49,6 +55,7 @@ public class BuildTemplateServiceImpl implements IBuildTemplateService {
         //构造 CouponTemplate 并保存到数据库中
         CouponTemplate template = request2Template(request);
         template = templateDao.save(template);
+        templateVersionService.recordChange(template);
         //根据优惠券模版异步生成优惠券码
         asyncService.asyncConstructCouponByTemplate(template);
 
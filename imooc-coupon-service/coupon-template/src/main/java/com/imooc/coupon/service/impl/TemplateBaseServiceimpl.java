@@ -1,19 +1,22 @@
 package com.imooc.coupon.service.impl;
 
+import com.imooc.coupon.cache.TemplateInfoCache;
 import com.imooc.coupon.dao.CouponTemplateDao;
 import com.imooc.coupon.entity.CouponTemplate;
 import com.imooc.coupon.exception.CouponException;
 import com.imooc.coupon.service.ITemplateBaseService;
+import com.imooc.coupon.service.ITemplateVersionService;
 import com.imooc.coupon.vo.CouponTemplateSDK;
+import com.imooc.coupon.vo.TemplateChanges;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -27,9 +30,22 @@ public class TemplateBaseServiceimpl implements ITemplateBaseService {
 
     private final CouponTemplateDao templateDao;
 
+    /**
+     * 模版集合版本服务
+     */
+    private final ITemplateVersionService templateVersionService;
+
+    /**
+     * 按模版id缓存的模版信息
+     */
+    private final TemplateInfoCache templateInfoCache;
+
     @Autowired
-    public TemplateBaseServiceimpl(CouponTemplateDao templateDao) {
+    public TemplateBaseServiceimpl(CouponTemplateDao templateDao, ITemplateVersionService templateVersionService,
+                                   TemplateInfoCache templateInfoCache) {
         this.templateDao = templateDao;
+        this.templateVersionService = templateVersionService;
+        this.templateInfoCache = templateInfoCache;
     }
 
     /**
@@ -41,11 +57,11 @@ public class TemplateBaseServiceimpl implements ITemplateBaseService {
      */
     @Override
     public CouponTemplate buildTemplateInfo(Integer id) throws CouponException {
-        Optional<CouponTemplate> template = templateDao.findById(id);
-        if (!template.isPresent()) {
+        CouponTemplate template = templateInfoCache.get(id);
+        if (null == template) {
             throw new CouponException("Template Is Not Exist: " + id);
         }
-        return template.get();
+        return template;
     }
 
     /**
@@ -58,7 +74,7 @@ public class TemplateBaseServiceimpl implements ITemplateBaseService {
 
         List<CouponTemplate> templateList = templateDao.findAllByAvailableAndExpired(true, false);
 
-        return templateList.stream().map(this::template2SDK).collect(Collectors.toList());
+        return templateList.stream().map(TemplateBaseServiceimpl::template2SDK).collect(Collectors.toList());
     }
 
     /**
@@ -70,10 +86,40 @@ public class TemplateBaseServiceimpl implements ITemplateBaseService {
     @Override
     public Map<Integer, CouponTemplateSDK> findIds2TemplateSDK(Collection<Integer> ids) {
 
-        List<CouponTemplate> templateList = templateDao.findAllById(ids);
+        return templateInfoCache.getAllSDK(ids);
+    }
+
+    /**
+     * 查询某个版本之后变化的模版
+     * 第一次同步(version < 0)或者版本号比当前版本还大(变化记录丢失)时返回所有可用的模版
+     *
+     * @param version
+     * @return {@link TemplateChanges}
+     */
+    @Override
+    public TemplateChanges findTemplateChanges(Long version) {
+        // 先读取版本号再查询数据库, 查询期间的变化在下一次同步时会再次返回
+        Long currentVersion = templateVersionService.currentVersion();
+        if (null == version || version < 0 || version > currentVersion) {
+            return new TemplateChanges(currentVersion, true, findAllUsableTemplate(), Collections.emptyList());
+        }
+
+        Map<Integer, Long> changes = templateVersionService.findChangesSince(version);
+        if (changes.isEmpty()) {
+            return new TemplateChanges(version, false, Collections.emptyList(), Collections.emptyList());
+        }
 
-        return templateList.stream().map(this::template2SDK)
-                .collect(Collectors.toMap(CouponTemplateSDK::getId, Function.identity()));
+        List<CouponTemplateSDK> templates = new ArrayList<>(changes.size());
+        List<Integer> removedIds = new ArrayList<>(changes.keySet());
+        templateDao.findAllById(changes.keySet()).forEach(template -> {
+            if (template.getAvailable() && !template.getExpired()) {
+                templates.add(template2SDK(template));
+                removedIds.remove(template.getId());
+            }
+        });
+        Long latestVersion = Collections.max(changes.values());
+        log.debug("Template Changes Since {}: {}, {}", version, latestVersion, changes.keySet());
+        return new TemplateChanges(latestVersion, false, templates, removedIds);
     }
 
     /**
@@ -81,7 +127,7 @@ public class TemplateBaseServiceimpl implements ITemplateBaseService {
      * @param template
      * @return
      */
-    private CouponTemplateSDK template2SDK(CouponTemplate template) {
+    public static CouponTemplateSDK template2SDK(CouponTemplate template) {
         return new CouponTemplateSDK(
                 template.getId(),
                 template.getName(),
@@ -0,0 +1,132 @@
+package com.imooc.coupon.service.impl;
+
+import com.alibaba.fastjson.JSON;
+import com.imooc.coupon.cache.TemplateInfoCache;
+import com.imooc.coupon.constant.Constant;
+import com.imooc.coupon.entity.CouponTemplate;
+import com.imooc.coupon.service.ITemplateVersionService;
+import com.imooc.coupon.vo.TemplateChangeEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 优惠券模版集合版本服务接口实现
+ * 版本号和变化记录保存在 redis 中, 多个模版服务实例共享
+ * 变化事件以模版id为 key 发布, 同一个模版的事件在同一个分区中有序
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 19:30
+ */
+@Slf4j
+@Service
+public class TemplateVersionServiceImpl implements ITemplateVersionService {
+
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * 按模版id缓存的模版信息
+     */
+    private final TemplateInfoCache templateInfoCache;
+
+    /**
+     * Kafka客户端
+     */
+    private final KafkaTemplate<String, String> kafkaTemplate;
+
+    /**
+     * 原子记录模版变化的脚本
+     */
+    private final DefaultRedisScript<Long> recordChangeScript;
+
+    /**
+     * 是否发布模版变化事件
+     */
+    @Value("${coupon.template-events.enabled:false}")
+    private boolean eventsEnabled;
+
+    @Autowired
+    public TemplateVersionServiceImpl(StringRedisTemplate redisTemplate, TemplateInfoCache templateInfoCache,
+                                      KafkaTemplate<String, String> kafkaTemplate) {
+        this.redisTemplate = redisTemplate;
+        this.templateInfoCache = templateInfoCache;
+        this.kafkaTemplate = kafkaTemplate;
+        this.recordChangeScript = new DefaultRedisScript<>();
+        this.recordChangeScript.setScriptSource(
+                new ResourceScriptSource(new ClassPathResource("lua/record_template_change.lua")));
+        this.recordChangeScript.setResultType(Long.class);
+    }
+
+    /**
+     * 记录模版的变化, 失效本实例的模版信息缓存, 开启模版变化事件时发布到 kafka
+     *
+     * @param template 变化后的模版
+     * @return 新的版本号
+     */
+    @Override
+    public Long recordChange(CouponTemplate template) {
+        String templateId = template.getId().toString();
+        Long version = redisTemplate.execute(recordChangeScript,
+                Arrays.asList(Constant.RedisPrefix.TEMPLATE_VERSION, Constant.RedisPrefix.TEMPLATE_CHANGES),
+                templateId);
+        log.info("Record Template Change: {}, {}", templateId, version);
+        templateInfoCache.invalidateAll(Collections.singleton(template.getId()));
+
+        if (eventsEnabled) {
+            TemplateChangeEvent event = new TemplateChangeEvent(template.getId(), version,
+                    template.getAvailable(), template.getExpired(), TemplateBaseServiceimpl.template2SDK(template));
+            kafkaTemplate.send(Constant.TEMPLATE_CHANGE_TOPIC, templateId, JSON.toJSONString(event))
+                    .addCallback(
+                            result -> log.debug("Send TemplateChangeEvent: {}, {}", templateId, version),
+                            ex -> log.error("Send TemplateChangeEvent Error: {}, {}", templateId, ex.getMessage())
+                    );
+        }
+        return version;
+    }
+
+    /**
+     * 获取当前的版本号, 即最后一次变化记录的版本号
+     *
+     * @return 还没有变化记录时返回 0
+     */
+    @Override
+    public Long currentVersion() {
+        Set<ZSetOperations.TypedTuple<String>> last = redisTemplate.opsForZSet()
+                .reverseRangeWithScores(Constant.RedisPrefix.TEMPLATE_CHANGES, 0, 0);
+        if (null == last || last.isEmpty()) {
+            return 0L;
+        }
+        return last.iterator().next().getScore().longValue();
+    }
+
+    /**
+     * 查询某个版本之后变化的模版, 每个模版只保留最后一次变化
+     *
+     * @param version
+     * @return Map<key : 模版id, value : 模版最后一次变化的版本号>
+     */
+    @Override
+    public Map<Integer, Long> findChangesSince(Long version) {
+        Set<ZSetOperations.TypedTuple<String>> changes = redisTemplate.opsForZSet()
+                .rangeByScoreWithScores(Constant.RedisPrefix.TEMPLATE_CHANGES, version + 1, Double.POSITIVE_INFINITY);
+        Map<Integer, Long> result = new HashMap<>();
+        if (null != changes) {
+            changes.forEach(change ->
+                    result.put(Integer.valueOf(change.getValue()), change.getScore().longValue()));
+        }
+        return result;
+    }
+}
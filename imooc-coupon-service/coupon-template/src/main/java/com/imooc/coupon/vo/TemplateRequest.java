@@ -3,6 +3,7 @@ package com.imooc.coupon.vo;
 import com.imooc.coupon.constant.CouponCategory;
 import com.imooc.coupon.constant.DistributeTarget;
 import com.imooc.coupon.constant.ProductLine;
+import com.imooc.coupon.generator.CouponCodeGenerator;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -67,7 +68,7 @@ public class TemplateRequest {
         boolean enumValid = (null != CouponCategory.of(category))
                 && (null != ProductLine.of(productLine))
                 && (null != DistributeTarget.of(target));
-        boolean numValid = count > 0 && userId > 0;
+        boolean numValid = count > 0 && count <= CouponCodeGenerator.CAPACITY && userId > 0;
 
         return stringValid && enumValid && numValid && rule.validate();
     }
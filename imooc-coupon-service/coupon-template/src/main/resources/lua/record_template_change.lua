@@ -0,0 +1,9 @@
+-- 记录优惠券模版的变化: 版本号加一, 并把模版最后一次变化的版本号更新为新版本
+-- 两步在一个脚本中完成, 按版本号查询变化时不会漏掉并发的修改
+-- KEYS[1]: 模版集合的版本号
+-- KEYS[2]: 模版变化记录
+-- ARGV[1]: 模版id
+-- 返回新的版本号
+local version = redis.call('INCR', KEYS[1])
+redis.call('ZADD', KEYS[2], version, ARGV[1])
+return version
@@ -0,0 +1,70 @@
+package com.imooc.coupon.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 优惠券码生成器测试
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 18:55
+ */
+public class CouponCodeGeneratorTest {
+
+    private static byte[] key(int seed) {
+        byte[] key = new byte[32];
+        key[0] = (byte) seed;
+        return key;
+    }
+
+    @Test
+    public void testGenerateFormat() {
+        CouponCodeGenerator generator = new CouponCodeGenerator("1001", "200213", key(42));
+
+        String code = generator.generate(0);
+        Assert.assertEquals(18, code.length());
+        Assert.assertTrue(code.startsWith("1001"));
+        Assert.assertTrue(code.matches("\\d{18}"));
+        // 后八位首位不为 0
+        Assert.assertNotEquals('0', code.charAt(10));
+        // 同一个 key 的结果是确定的
+        Assert.assertEquals(code, new CouponCodeGenerator("1001", "200213", key(42)).generate(0));
+    }
+
+    @Test
+    public void testDifferentKeys() {
+        // 只差一个字节的 key 得到不同的优惠券码
+        Assert.assertNotEquals(new CouponCodeGenerator("1001", "200213", key(42)).generate(0),
+                new CouponCodeGenerator("1001", "200213", key(43)).generate(0));
+    }
+
+    @Test
+    public void testGenerateUnique() {
+        CouponCodeGenerator generator = new CouponCodeGenerator("1001", "200213", key(42));
+
+        int count = 1000000;
+        Set<String> codes = new HashSet<>(count * 2);
+        for (int seq = 0; seq != count; seq++) {
+            codes.add(generator.generate(seq));
+        }
+        Assert.assertEquals(count, codes.size());
+    }
+
+    @Test
+    public void testPermuteInRange() {
+        CouponCodeGenerator generator = new CouponCodeGenerator("1001", "200213", key(7));
+
+        for (int seq = CouponCodeGenerator.CAPACITY - 1000; seq != CouponCodeGenerator.CAPACITY; seq++) {
+            int value = generator.permute(seq);
+            Assert.assertTrue(value >= 0 && value < CouponCodeGenerator.CAPACITY);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGenerateOutOfRange() {
+        new CouponCodeGenerator("1001", "200213", key(42)).generate(CouponCodeGenerator.CAPACITY);
+    }
+}
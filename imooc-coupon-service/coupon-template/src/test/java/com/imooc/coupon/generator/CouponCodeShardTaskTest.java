@@ -0,0 +1,42 @@
+package com.imooc.coupon.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 优惠券码分片生成任务测试
+ *
+ * @AUTHOR zhangxf
+ * @CREATE 2026-10-18 18:55
+ */
+public class CouponCodeShardTaskTest {
+
+    @Test
+    public void testParallelBuild() {
+        CouponCodeGenerator generator = new CouponCodeGenerator("1001", "200213", new byte[32]);
+        Set<String> codes = ConcurrentHashMap.newKeySet();
+        Set<Integer> chunkStarts = ConcurrentHashMap.newKeySet();
+
+        int count = 123457;
+        int chunkSize = 1000;
+        long pushed = new ForkJoinPool(4).invoke(new CouponCodeShardTask(
+                generator,
+                (chunkStart, chunk) -> {
+                    chunkStarts.add(chunkStart);
+                    codes.addAll(chunk);
+                    return chunk.size();
+                },
+                0, count, chunkSize, 5000
+        ));
+
+        Assert.assertEquals(count, pushed);
+        Assert.assertEquals(count, codes.size());
+        // 每一批都从批大小的整数倍开始
+        Assert.assertEquals((count + chunkSize - 1) / chunkSize, chunkStarts.size());
+        chunkStarts.forEach(start -> Assert.assertEquals(0, start % chunkSize));
+    }
+}